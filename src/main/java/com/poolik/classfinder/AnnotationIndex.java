@@ -0,0 +1,133 @@
+package com.poolik.classfinder;
+
+import com.poolik.classfinder.info.AnnotationInfo;
+import com.poolik.classfinder.info.ClassInfo;
+
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Found classes, indexed by the names of their annotations, so the
+ * classes carrying an annotation are looked up rather than searched for.
+ * Annotations kept in class files but not visible at runtime, those of
+ * {@link RetentionPolicy#CLASS} retention, are indexed apart from those of
+ * {@link RetentionPolicy#RUNTIME} retention.</p>
+ *
+ * <p>Only the annotations of the classes themselves are indexed, and only
+ * those parsed, so the classes must be parsed to at least
+ * {@link ParseDepth#ANNOTATIONS}. A scan fills the index as it finds
+ * classes, on the threads that find them.</p>
+ *
+ * <p>An <tt>AnnotationIndex</tt> can be used by several threads at
+ * once.</p>
+ *
+ * @see ClassFinder#findAnnotationIndex()
+ */
+public class AnnotationIndex {
+  private final ConcurrentMap<String, Queue<ClassInfo>> visible = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Queue<ClassInfo>> invisible = new ConcurrentHashMap<>();
+
+  AnnotationIndex() {
+  }
+
+  /**
+   * @param classes the classes to index
+   */
+  public AnnotationIndex(Collection<ClassInfo> classes) {
+    for (ClassInfo classInfo : classes)
+      add(classInfo);
+  }
+
+  /**
+   * @return the classes annotated with the annotation, of either retention
+   */
+  public Collection<ClassInfo> getClassesAnnotatedWith(String annotationName) {
+    Collection<ClassInfo> found = new ArrayList<>();
+    addAll(found, visible.get(annotationName));
+    addAll(found, invisible.get(annotationName));
+    return found;
+  }
+
+  /**
+   * @param annotationName the annotation's class name
+   * @param retention      {@link RetentionPolicy#RUNTIME} for annotations
+   *                       visible at runtime, {@link RetentionPolicy#CLASS}
+   *                       for the others, or null for either
+   * @return the classes annotated with the annotation
+   */
+  public Collection<ClassInfo> getClassesAnnotatedWith(String annotationName, RetentionPolicy retention) {
+    if (retention == null) return getClassesAnnotatedWith(annotationName);
+    Collection<ClassInfo> found = new ArrayList<>();
+    addAll(found, indexOf(retention).get(annotationName));
+    return found;
+  }
+
+  /**
+   * @return the names of the annotations found on any class
+   */
+  public Set<String> getAnnotationNames() {
+    Set<String> names = new HashSet<>(visible.keySet());
+    names.addAll(invisible.keySet());
+    return Collections.unmodifiableSet(names);
+  }
+
+  void add(ClassInfo classInfo) {
+    for (AnnotationInfo annotation : classInfo.getAnnotations()) {
+      ConcurrentMap<String, Queue<ClassInfo>> index = annotation.isVisibleAtRuntime() ? visible : invisible;
+      Queue<ClassInfo> classes = index.get(annotation.getName());
+      if (classes == null) {
+        Queue<ClassInfo> created = new ConcurrentLinkedQueue<>();
+        classes = index.putIfAbsent(annotation.getName(), created);
+        if (classes == null) classes = created;
+      }
+      classes.add(classInfo);
+    }
+  }
+
+  /**
+   * Drop the classes that aren't the found class of their name, such as
+   * those found again in a later place.
+   *
+   * @param foundClasses the classes of the scan, by name
+   */
+  void retainFound(Map<String, ClassInfo> foundClasses) {
+    retainFound(visible, foundClasses);
+    retainFound(invisible, foundClasses);
+  }
+
+  private static void retainFound(Map<String, Queue<ClassInfo>> index, Map<String, ClassInfo> foundClasses) {
+    for (Iterator<Queue<ClassInfo>> it = index.values().iterator(); it.hasNext(); ) {
+      Queue<ClassInfo> classes = it.next();
+      for (Iterator<ClassInfo> classIt = classes.iterator(); classIt.hasNext(); ) {
+        ClassInfo classInfo = classIt.next();
+        if (foundClasses.get(classInfo.getClassName()) != classInfo) classIt.remove();
+      }
+      if (classes.isEmpty()) it.remove();
+    }
+  }
+
+  private ConcurrentMap<String, Queue<ClassInfo>> indexOf(RetentionPolicy retention) {
+    switch (retention) {
+      case RUNTIME:
+        return visible;
+      case CLASS:
+        return invisible;
+      default:
+        throw new IllegalArgumentException("Annotations of " + retention + " retention aren't kept in class files");
+    }
+  }
+
+  private static void addAll(Collection<ClassInfo> found, Queue<ClassInfo> classes) {
+    if (classes != null) found.addAll(classes);
+  }
+}
@@ -0,0 +1,21 @@
+package com.poolik.classfinder;
+
+/**
+ * How the entries of jar and zip files are read.
+ *
+ * @see ClassFinder#setArchiveBackend
+ */
+public enum ArchiveBackend {
+  /**
+   * Read every entry with positional reads through a file channel, into
+   * buffers kept per thread.
+   */
+  FILE_CHANNEL,
+  /**
+   * Map every archive into memory once and parse class files straight from
+   * the mapping. Stored entries are not copied at all. A mapping keeps its
+   * file open until it is garbage collected, which on Windows stops the
+   * file from being deleted or replaced until then.
+   */
+  MEMORY_MAPPED
+}
@@ -0,0 +1,19 @@
+package com.poolik.classfinder;
+
+/**
+ * Told the outcome of an asynchronous search, on the thread that finished
+ * it. It should hand any lengthy work over to a thread of its own.
+ *
+ * @param <T> the type of result
+ * @see ClassFinder#findClassesAsync(com.poolik.classfinder.filter.ClassFilter, Callback)
+ */
+public interface Callback<T> {
+  public void onSuccess(T result);
+
+  /**
+   * @param failure why the search failed, a
+   *                <tt>java.util.concurrent.CancellationException</tt> if
+   *                it was cancelled
+   */
+  public void onFailure(Throwable failure);
+}
@@ -46,15 +46,27 @@
 
 package com.poolik.classfinder;
 
+import com.poolik.classfinder.cache.ScanCache;
+import com.poolik.classfinder.cache.SharedScanCache;
+import com.poolik.classfinder.filter.Annotated;
 import com.poolik.classfinder.filter.ClassFilter;
+import com.poolik.classfinder.filter.FilterAnalyzer;
 import com.poolik.classfinder.info.ClassInfo;
+import com.poolik.classfinder.io.PathScope;
 import com.poolik.classfinder.resourceLoader.AdditionalResourceLoader;
 import com.poolik.classfinder.resourceLoader.JarClasspathEntriesLoader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.poolik.classfinder.io.FileUtil.fileCanContainClasses;
 
@@ -123,12 +135,38 @@ import static com.poolik.classfinder.io.FileUtil.fileCanContainClasses;
  * @author Copyright &copy; 2006 Brian M. Clapper
  * @version <tt>$Revision$</tt>
  */
-public class ClassFinder {
+public class ClassFinder implements Closeable {
 
   private Map<String, File> placesToSearch = new LinkedHashMap<>();
   private static Collection<AdditionalResourceLoader> resourceLoaders = Arrays.<AdditionalResourceLoader>asList(new JarClasspathEntriesLoader());
   private static final Logger log = LoggerFactory.getLogger(ClassFinder.class);
+  private static final int DEFAULT_STREAM_BUFFER_SIZE = 1024;
+  private static final Runnable NOTHING = new Runnable() {
+    @Override
+    public void run() {
+    }
+  };
   private boolean errorIfResultEmpty;
+  private ParseDepth parseDepth = ParseDepth.MEMBERS;
+  private ScanMode scanMode = ScanMode.ASM;
+  private int walkParallelism = Runtime.getRuntime().availableProcessors();
+  private boolean followLinks = false;
+  private ArchiveBackend archiveBackend = ArchiveBackend.FILE_CHANNEL;
+  private boolean scanNestedArchives = false;
+  private Comparator<? super File> locationPriority;
+  private final List<String> includedPackages = new ArrayList<>();
+  private final List<String> excludedPackages = new ArrayList<>();
+  private final List<String> includedPaths = new ArrayList<>();
+  private final List<String> excludedPaths = new ArrayList<>();
+  private ExecutorService executor;
+  private boolean ownsExecutor;
+  private ScanCache cache;
+  private SharedScanCache sharedCache;
+  private boolean useClassIndexes = true;
+  private ClassWatcher watcher;
+  private ParseDepth watchedParseDepth;
+  private final List<StandingQuery> queries = new CopyOnWriteArrayList<>();
+  private Map<String, ClassInfo> lastRefresh;
 
   /**
    * Add the contents of the system classpath for classes.
@@ -146,10 +184,10 @@ public class ClassFinder {
   }
 
   /**
-   * Add a jar file, zip file or directory to the list of places to search
-   * for classes.
+   * Add a jar file, zip file, war or ear file or directory to the list of
+   * places to search for classes.
    *
-   * @param file the jar file, zip file or directory
+   * @param file the jar file, zip file, war or ear file or directory
    * @return this
    */
   public ClassFinder add(File file) {
@@ -208,6 +246,377 @@ public class ClassFinder {
     return this;
   }
 
+  /**
+   * Set how much detail the returned {@link ClassInfo} objects must carry.
+   * Classes are parsed to this depth, or deeper if the filter passed to
+   * {@link #findClasses(ClassFilter)} needs more.
+   *
+   * <p>Defaults to {@link ParseDepth#MEMBERS}, so the fields and methods of
+   * every returned class are there as they always were, and each class file
+   * is read in full even when the filter, such as a {@link com.poolik.classfinder.filter.Regex} or
+   * {@link com.poolik.classfinder.filter.Subclass}, only looks at its
+   * header. Callers that don't read the members opt in to the faster scan
+   * by setting {@link ParseDepth#HEADER}, which lets the filter alone
+   * decide.</p>
+   *
+   * @param parseDepth the least detail to parse classes with
+   * @return this
+   */
+  public ClassFinder setParseDepth(ParseDepth parseDepth) {
+    this.parseDepth = parseDepth;
+    return this;
+  }
+
+  /**
+   * Set how class files are decoded. Defaults to {@link ScanMode#ASM}.
+   *
+   * @param scanMode the scan mode
+   * @return this
+   */
+  public ClassFinder setScanMode(ScanMode scanMode) {
+    this.scanMode = scanMode;
+    return this;
+  }
+
+  /**
+   * Set how many directories may be listed at the same time. Raising it
+   * above the number of processors helps on file systems where listing a
+   * directory is slow, such as network mounts. Defaults to the number of
+   * available processors.
+   *
+   * @param walkParallelism the number of directories to walk concurrently
+   * @return this
+   * @throws IllegalArgumentException if the number is less than 1
+   */
+  public ClassFinder setWalkParallelism(int walkParallelism) {
+    if (walkParallelism < 1) throw new IllegalArgumentException("Walk parallelism must be at least 1, was " + walkParallelism);
+    this.walkParallelism = walkParallelism;
+    return this;
+  }
+
+  /**
+   * Set whether symbolic links to directories are followed when looking
+   * through directories. Links that lead back to a directory above them
+   * are skipped. Defaults to false.
+   *
+   * @param followLinks true to follow links
+   * @return this
+   */
+  public ClassFinder setFollowLinks(boolean followLinks) {
+    this.followLinks = followLinks;
+    return this;
+  }
+
+  /**
+   * Set how entries of jar and zip files are read. Defaults to
+   * {@link ArchiveBackend#FILE_CHANNEL}.
+   *
+   * @param archiveBackend the archive backend
+   * @return this
+   */
+  public ClassFinder setArchiveBackend(ArchiveBackend archiveBackend) {
+    this.archiveBackend = archiveBackend;
+    return this;
+  }
+
+  /**
+   * Set whether archives stored in other archives are searched too, such
+   * as the jars in a war file's <tt>WEB-INF/lib</tt>, the modules of an ear
+   * file or the jars of a Spring Boot jar. They are read straight from the
+   * outer archive, without extracting anything to disk, and their classes'
+   * location is reported as <tt>outer.war!/WEB-INF/lib/inner.jar</tt>.
+   * Defaults to false.
+   *
+   * @param scanNestedArchives true to search nested archives
+   * @return this
+   */
+  public ClassFinder setScanNestedArchives(boolean scanNestedArchives) {
+    this.scanNestedArchives = scanNestedArchives;
+    return this;
+  }
+
+  /**
+   * Only look for classes in the given packages and their subpackages.
+   * Directories that can't hold them are not walked, and other class
+   * entries of archives are not read. Jar and zip files in directories
+   * that aren't walked are not found either.
+   *
+   * @param packageNames the packages, such as <tt>com.acme.plugins</tt>
+   * @return this
+   * @see PathScope
+   */
+  public ClassFinder includePackages(String... packageNames) {
+    includedPackages.addAll(Arrays.asList(packageNames));
+    return this;
+  }
+
+  /**
+   * Don't look for classes in the given packages and their subpackages.
+   * Their directories are not walked, and their class entries in archives
+   * are not read.
+   *
+   * @param packageNames the packages, such as <tt>com.acme.internal</tt>
+   * @return this
+   * @see PathScope
+   */
+  public ClassFinder excludePackages(String... packageNames) {
+    excludedPackages.addAll(Arrays.asList(packageNames));
+    return this;
+  }
+
+  /**
+   * Only look at class files, archive entries and nested archives whose
+   * path matches one of the globs. Paths are relative to the top of the
+   * directory or archive they are in, with <tt>/</tt> between names.
+   *
+   * @param globs the globs, such as <tt>**&#47;plugins/**</tt>
+   * @return this
+   * @see PathScope
+   */
+  public ClassFinder includePaths(String... globs) {
+    includedPaths.addAll(Arrays.asList(globs));
+    return this;
+  }
+
+  /**
+   * Leave out directories, class files, archive entries and nested
+   * archives whose path matches one of the globs. Paths are relative to
+   * the top of the directory or archive they are in, with <tt>/</tt>
+   * between names. Matching directories are not walked.
+   *
+   * @param globs the globs, such as <tt>**&#47;shaded/**</tt>
+   * @return this
+   * @see PathScope
+   */
+  public ClassFinder excludePaths(String... globs) {
+    excludedPaths.addAll(Arrays.asList(globs));
+    return this;
+  }
+
+  /**
+   * Keep the classes found in a cache directory, so later searches, by
+   * this finder or any other using the same directory, only parse class
+   * files that have changed. An archive is taken to be unchanged while its
+   * size and modification time are, a class file in a directory while its
+   * own are; entries of a changed archive are compared by the CRCs in its
+   * central directory. Off by default.
+   *
+   * @param directory the cache directory, created when needed, or null to
+   *                  stop caching
+   * @return this
+   * @see ScanCache
+   */
+  public ClassFinder setCacheDirectory(File directory) {
+    this.cache = directory == null ? null : new ScanCache(directory);
+    return this;
+  }
+
+  /**
+   * Keep the classes found in archives in memory, shared with every other
+   * finder of the JVM using the same cache, so an archive searched by
+   * several finders, or by several searches, is parsed once. Pass
+   * {@link SharedScanCache#getDefault()} to share with every finder doing
+   * the same. Searches whose filter leaves packages or paths out, or is a
+   * {@link com.poolik.classfinder.filter.Regex} narrowing down the class
+   * entries read, don't use it. Off by default.
+   *
+   * <p>Classes taken from the cache are the cache's own copies, shared by
+   * every finder given them, and can't be changed: their fields, methods
+   * and annotations are read-only sets.</p>
+   *
+   * @param sharedCache the cache, or null to stop sharing
+   * @return this
+   * @see SharedScanCache
+   */
+  public ClassFinder setSharedCache(SharedScanCache sharedCache) {
+    this.sharedCache = sharedCache;
+    return this;
+  }
+
+  /**
+   * Set whether jars carrying a class index written at build time, as
+   * <tt>META-INF/classfinder.idx</tt>, have their classes taken from the
+   * index instead of being scanned. Jars without one, or whose index holds
+   * less than the search needs, are scanned either way. Defaults to true.
+   *
+   * @param useClassIndexes false to always scan class files
+   * @return this
+   * @see com.poolik.classfinder.index.ClassIndexTool
+   */
+  public ClassFinder setUseClassIndexes(boolean useClassIndexes) {
+    this.useClassIndexes = useClassIndexes;
+    return this;
+  }
+
+  /**
+   * Set the order in which the places to search are started on, such as
+   * one that puts the places most likely to hold the classes looked for
+   * first. Places are searched in parallel, so later ones may still be
+   * started before earlier ones are done. This matters most to searches
+   * that stop early, like {@link #findAny}. Defaults to the order the
+   * places were added in.
+   *
+   * @param locationPriority orders the places to search, or null for the
+   *                         order they were added in
+   * @return this
+   */
+  public ClassFinder setLocationPriority(Comparator<? super File> locationPriority) {
+    this.locationPriority = locationPriority;
+    return this;
+  }
+
+  /**
+   * Set the executor that runs the scan's tasks. A
+   * <tt>ForkJoinPool</tt> lets idle threads steal work from busy ones;
+   * an executor with many more threads than processors keeps more reads
+   * in flight, which helps on slow file systems such as network mounts.
+   * The finder never shuts a given executor down. Pass null to go back to
+   * the default, a <tt>ForkJoinPool</tt> shared by all finders with a
+   * daemon worker per processor.
+   *
+   * <p>The thread calling {@link #findClasses} waits for the scan without
+   * running any of its tasks, so it must not be the only thread of the
+   * executor.</p>
+   *
+   * @param executor the executor, or null for the default
+   * @return this
+   */
+  public ClassFinder setExecutor(ExecutorService executor) {
+    shutdownExecutor();
+    this.executor = executor;
+    return this;
+  }
+
+  /**
+   * Run the scan's tasks on a new virtual thread each, so every file read
+   * can be in flight at once without tying up a platform thread. Needs a
+   * runtime with virtual threads, Java 21 or later. The finder owns the
+   * executor it creates, so {@link #close} must be called when done.
+   *
+   * @return this
+   * @throws UnsupportedOperationException if the runtime has no virtual
+   *                                       threads
+   */
+  public ClassFinder useVirtualThreads() {
+    ExecutorService virtualThreads = newVirtualThreadPerTaskExecutor();
+    shutdownExecutor();
+    executor = virtualThreads;
+    ownsExecutor = true;
+    return this;
+  }
+
+  /**
+   * <p>Find the classes of the places to search once, then keep them in
+   * memory and current with changes on disk, answering searches from
+   * there instead of scanning. The directories below the places to search
+   * are watched for class files and archives being created, modified or
+   * deleted, and only the file that changed is parsed again. Changes are
+   * seen a short while after they happen.</p>
+   *
+   * <p>Classes are kept parsed to the {@link #setParseDepth parse depth}
+   * set when this is called, or deeper if a {@link #addQuery standing
+   * query} needs it, and with the packages and paths included then.
+   * Searches whose filter needs classes parsed deeper scan as usual.
+   * Calling this again starts over with the places to search and settings
+   * of the time; {@link #close} stops watching.</p>
+   *
+   * @return this
+   * @throws ClassFinderException if the file system can't be watched
+   */
+  public ClassFinder watch() {
+    stopWatching();
+    watchedParseDepth = queriesParseDepth();
+    ParallelClassLoader classLoader = newClassLoader(watchedParseDepth).setScope(scopeFor(null));
+    watcher = new ClassWatcher(classLoader, locationsToSearch(), scopeFor(null), followLinks);
+    for (StandingQuery query : queries)
+      watcher.addQuery(query);
+    return this;
+  }
+
+  /**
+   * <p>Keep a filter applied to the classes of the places to search,
+   * telling the listener which classes start or stop passing it, and which
+   * passing classes changed, instead of searching again and comparing
+   * results. Only classes that changed, and those below them in the class
+   * hierarchy, are judged again.</p>
+   *
+   * <p>While {@link #watch watching}, the listener is told of every class
+   * passing the filter before this returns, and of changes on the
+   * watching thread as they are seen. Otherwise it is told of them by
+   * {@link #refreshQueries}.</p>
+   *
+   * @param filter   the filter, or null for every class
+   * @param listener told of the changes
+   * @return the query, to be closed when no longer needed
+   * @throws IllegalStateException if watching parses classes to less depth
+   *                               than the filter needs; add the query
+   *                               before calling {@link #watch}
+   */
+  public StandingQuery addQuery(ClassFilter filter, QueryListener listener) {
+    if (watcher != null && !watchedParseDepth.includes(FilterAnalyzer.requiredParseDepth(filter)))
+      throw new IllegalStateException("The filter needs classes parsed to " + FilterAnalyzer.requiredParseDepth(filter)
+          + ", they are watched at " + watchedParseDepth);
+    StandingQuery query = new StandingQuery(filter, listener, this);
+    queries.add(query);
+    if (watcher != null) watcher.addQuery(query);
+    return query;
+  }
+
+  /**
+   * Scan the places to search and tell the {@link #addQuery standing
+   * queries} what changed since the last refresh. Queries added since then
+   * are told of every class passing their filter. Does nothing while
+   * {@link #watch watching}, as the queries are kept current anyway.
+   */
+  public void refreshQueries() {
+    if (watcher != null || queries.isEmpty()) return;
+    Map<String, ClassInfo> classes = newClassLoader(queriesParseDepth()).setScope(scopeFor(null))
+        .loadClassesFrom(locationsToSearch());
+    Map<String, ClassInfo> previous = null;
+    if (lastRefresh != null) {
+      previous = new HashMap<>();
+      for (Map.Entry<String, ClassInfo> entry : lastRefresh.entrySet()) {
+        if (!StandingQuery.sameClass(entry.getValue(), classes.get(entry.getKey())))
+          previous.put(entry.getKey(), entry.getValue());
+      }
+      for (String className : classes.keySet()) {
+        if (!lastRefresh.containsKey(className)) previous.put(className, null);
+      }
+    }
+    log.info("Refreshing queries, " + (previous == null ? classes.size() : previous.size()) + " classes changed");
+    for (StandingQuery query : queries)
+      query.update(classes, previous);
+    lastRefresh = classes;
+  }
+
+  void removeQuery(StandingQuery query) {
+    queries.remove(query);
+    if (watcher != null) watcher.removeQuery(query);
+  }
+
+  /**
+   * Stop watching the places to search, if {@link #watch} was called, and
+   * shut down the executor created by {@link #useVirtualThreads}, if any,
+   * going back to the default executor. Executors passed to
+   * {@link #setExecutor} are left running.
+   */
+  @Override
+  public void close() {
+    stopWatching();
+    shutdownExecutor();
+  }
+
+  private void stopWatching() {
+    if (watcher != null) watcher.close();
+    watcher = null;
+  }
+
+  private void shutdownExecutor() {
+    if (ownsExecutor) executor.shutdown();
+    executor = null;
+    ownsExecutor = false;
+  }
+
   /**
    * Find all classes in the search areas, implicitly accepting all of
    * them.
@@ -226,10 +635,315 @@ public class ClassFinder {
    * @return Collection of found classes
    */
   public Collection<ClassInfo> findClasses(ClassFilter filter) {
-    Map<String,ClassInfo> foundClasses = new ParallelClassLoader().loadClassesFrom(placesToSearch.values());
+    if (isWatchedFor(filter)) return filterFoundClasses(filter, watcher.getClasses());
+    AnnotationIndex annotationIndex = annotationIndexFor(filter);
+    Map<String, ClassInfo> foundClasses = newClassLoader(filter)
+        .setAnnotationIndex(annotationIndex)
+        .loadClassesFrom(locationsToSearch());
+    Collection<ClassInfo> classes = filterFoundClasses(filter, foundClasses, annotationIndex);
+    foundClasses.clear();
+    return classes;
+  }
+
+  /**
+   * Find all classes in the search areas, indexed by the annotations they
+   * carry, to look up the classes annotated with an annotation by its name
+   * as many times as needed. The classes are parsed to at least
+   * {@link ParseDepth#ANNOTATIONS}.
+   *
+   * @return the found classes
+   */
+  public AnnotationIndex findAnnotationIndex() {
+    if (watcher != null && watchedParseDepth.includes(ParseDepth.ANNOTATIONS))
+      return new AnnotationIndex(watcher.getClasses().values());
+    AnnotationIndex annotationIndex = new AnnotationIndex();
+    Map<String, ClassInfo> classes = newClassLoader(ParseDepth.deepest(parseDepth, ParseDepth.ANNOTATIONS))
+        .setScope(scopeFor(null))
+        .setAnnotationIndex(annotationIndex)
+        .loadClassesFrom(locationsToSearch());
+    log.info("Loaded " + classes.size() + " classes.");
+    annotationIndex.retainFound(classes);
+    return annotationIndex;
+  }
+
+  /**
+   * Find all classes in the search areas, indexed by the classes they
+   * extend and the interfaces they implement, to look up the classes below
+   * a type by its name as many times as needed.
+   *
+   * @return the found classes
+   */
+  public ClassHierarchy findHierarchy() {
+    if (watcher != null) return new ClassHierarchy(watcher.getClasses());
+    Map<String, ClassInfo> classes = newClassLoader((ClassFilter) null).loadClassesFrom(locationsToSearch());
+    log.info("Loaded " + classes.size() + " classes.");
+    return new ClassHierarchy(classes);
+  }
+
+  /**
+   * Search the search areas for any one class that passes the filter,
+   * stopping the search as soon as one is found.
+   *
+   * @param filter the filter, or null for no filter
+   * @return a class passing the filter, or null if there is none
+   * @see #findClasses(ClassFilter, int)
+   */
+  public ClassInfo findAny(ClassFilter filter) {
+    Collection<ClassInfo> classes = findClasses(filter, 1);
+    return classes.isEmpty() ? null : classes.iterator().next();
+  }
+
+  /**
+   * Search the search areas for at most <tt>limit</tt> classes that pass
+   * the filter, stopping the search as soon as that many are found. Which
+   * of the passing classes are returned is not fixed; set a
+   * {@link #setLocationPriority location priority} to have some places
+   * looked through first. Filters that look at the class hierarchy, such
+   * as {@link com.poolik.classfinder.filter.Subclass}, can only judge
+   * classes once all have been found, so searches with them don't stop
+   * early.
+   *
+   * @param filter the filter, or null for no filter
+   * @param limit  the most classes to find
+   * @return Collection of found classes
+   */
+  public Collection<ClassInfo> findClasses(ClassFilter filter, int limit) {
+    if (limit < 1) throw new IllegalArgumentException("Limit must be at least 1, was " + limit);
+    Collection<ClassInfo> classes = new ArrayList<>();
+    try (ClassStream stream = streamClasses(filter, Math.min(limit, DEFAULT_STREAM_BUFFER_SIZE))) {
+      while (classes.size() < limit && stream.hasNext())
+        classes.add(stream.next());
+    }
+    return classes;
+  }
+
+  /**
+   * Search all classes in the search areas like
+   * {@link #findClasses(ClassFilter)}, without waiting for the search to
+   * finish. Classes are filtered on the thread that finishes scanning
+   * them. The places to search are the ones added when this is called.
+   *
+   * @param filter the filter, or null for no filter
+   * @return the found classes, once found. Cancelling it stops the search.
+   */
+  public Future<Collection<ClassInfo>> findClassesAsync(ClassFilter filter) {
+    return findClassesAsync(filter, null);
+  }
+
+  /**
+   * Search all classes in the search areas like
+   * {@link #findClassesAsync(ClassFilter)}, telling <tt>callback</tt> the
+   * outcome.
+   *
+   * @param filter   the filter, or null for no filter
+   * @param callback told the found classes or why the search failed, or
+   *                 null
+   * @return the found classes, once found. Cancelling it stops the search.
+   */
+  public Future<Collection<ClassInfo>> findClassesAsync(final ClassFilter filter,
+                                                        Callback<? super Collection<ClassInfo>> callback) {
+    if (isWatchedFor(filter)) {
+      ScanFuture<Collection<ClassInfo>> result = new ScanFuture<>(callback, NOTHING);
+      try {
+        result.complete(filterFoundClasses(filter, watcher.getClasses()));
+      } catch (RuntimeException ex) {
+        result.fail(ex);
+      }
+      return result;
+    }
+    final AtomicReference<Future<?>> scan = new AtomicReference<>();
+    final ScanFuture<Collection<ClassInfo>> result = new ScanFuture<>(callback, new Runnable() {
+      @Override
+      public void run() {
+        scan.get().cancel(false);
+      }
+    });
+    final AnnotationIndex annotationIndex = annotationIndexFor(filter);
+    ParallelClassLoader classLoader = newClassLoader(filter).setAnnotationIndex(annotationIndex);
+    scan.set(classLoader.loadClassesAsync(locationsToSearch(), new Callback<Map<String, ClassInfo>>() {
+      @Override
+      public void onSuccess(Map<String, ClassInfo> foundClasses) {
+        try {
+          Collection<ClassInfo> classes = filterFoundClasses(filter, foundClasses, annotationIndex);
+          foundClasses.clear();
+          result.complete(classes);
+        } catch (RuntimeException ex) {
+          result.fail(ex);
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable failure) {
+        result.fail(failure);
+      }
+    }));
+    return result;
+  }
+
+  /**
+   * Search all classes in the search areas like
+   * {@link #streamClasses(ClassFilter, int)}, holding at most 1024 found
+   * classes waiting to be taken.
+   *
+   * @param filter the filter, or null for no filter
+   * @return the found classes, as they are found
+   */
+  public ClassStream streamClasses(ClassFilter filter) {
+    return streamClasses(filter, DEFAULT_STREAM_BUFFER_SIZE);
+  }
+
+  /**
+   * Search all classes in the search areas, handing out those that pass
+   * the filter while the search goes on. Unless the filter looks at the
+   * class hierarchy, as {@link com.poolik.classfinder.filter.Subclass}
+   * does, each class is judged and handed out as soon as it has been
+   * parsed, and no other found class is kept. Otherwise classes are handed
+   * out once all have been found. A class found in several places is
+   * handed out once for each when handed out as it is parsed.
+   *
+   * @param filter     the filter, or null for no filter
+   * @param bufferSize how many found classes may wait to be taken before
+   *                   the search waits for them to be
+   * @return the found classes, as they are found. It must be read to the
+   * end or closed.
+   */
+  public ClassStream streamClasses(final ClassFilter filter, int bufferSize) {
+    if (isWatchedFor(filter)) return streamWatchedClasses(filter, bufferSize);
+    final ClassStream stream = new ClassStream(bufferSize);
+    final AtomicInteger handedOut = new AtomicInteger();
+    final boolean judgeWhenParsed = !FilterAnalyzer.needsHierarchy(filter);
+    ParallelClassLoader classLoader = newClassLoader(filter);
+    if (judgeWhenParsed) {
+      final ClassHierarchyResolver noHierarchy = new ClassHierarchyResolver(Collections.<String, ClassInfo>emptyMap());
+      classLoader.setClassListener(new ClassListener() {
+        @Override
+        public void found(ClassInfo classInfo) {
+          if (filter == null || filter.accept(classInfo, noHierarchy)) {
+            handedOut.incrementAndGet();
+            stream.put(classInfo);
+          }
+        }
+      });
+    }
+    stream.setSearch(classLoader.loadClassesAsync(locationsToSearch(), new Callback<Map<String, ClassInfo>>() {
+      @Override
+      public void onSuccess(Map<String, ClassInfo> foundClasses) {
+        try {
+          if (!judgeWhenParsed) {
+            for (ClassInfo classInfo : filterClasses(filter, foundClasses)) {
+              handedOut.incrementAndGet();
+              stream.put(classInfo);
+            }
+          }
+          if (handedOut.get() == 0 && errorIfResultEmpty) stream.end(new ClassFinderException("Didn't find any classes"));
+          else stream.end(null);
+        } catch (RuntimeException ex) {
+          stream.end(ex);
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable failure) {
+        stream.end(failure);
+      }
+    }));
+    return stream;
+  }
+
+  private ClassStream streamWatchedClasses(ClassFilter filter, int bufferSize) {
+    if (bufferSize < 1) throw new IllegalArgumentException("Buffer size must be at least 1, was " + bufferSize);
+    Collection<ClassInfo> classes;
+    try {
+      classes = filterFoundClasses(filter, watcher.getClasses());
+    } catch (RuntimeException ex) {
+      ClassStream stream = new ClassStream(1);
+      stream.end(ex);
+      return stream;
+    }
+    // Everything is at hand, so the stream holds it all rather than wait
+    ClassStream stream = new ClassStream(classes.size() + 1);
+    for (ClassInfo classInfo : classes)
+      stream.put(classInfo);
+    stream.end(null);
+    return stream;
+  }
+
+  private boolean isWatchedFor(ClassFilter filter) {
+    return watcher != null && watchedParseDepth.includes(FilterAnalyzer.requiredParseDepth(filter));
+  }
+
+  private List<File> locationsToSearch() {
+    List<File> locations = new ArrayList<>(placesToSearch.values());
+    if (locationPriority != null) Collections.sort(locations, locationPriority);
+    return locations;
+  }
+
+  private ParallelClassLoader newClassLoader(ClassFilter filter) {
+    return newClassLoader(ParseDepth.deepest(parseDepth, FilterAnalyzer.requiredParseDepth(filter)))
+        .setScope(scopeFor(filter));
+  }
+
+  private ParallelClassLoader newClassLoader(ParseDepth depth) {
+    log.debug("Parsing classes to depth " + depth);
+    ParallelClassLoader classLoader = new ParallelClassLoader(depth);
+    if (executor != null) classLoader.setExecutor(executor);
+    return classLoader
+        .setScanMode(scanMode)
+        .setWalkParallelism(walkParallelism)
+        .setFollowLinks(followLinks)
+        .setArchiveBackend(archiveBackend)
+        .setScanNestedArchives(scanNestedArchives)
+        .setCache(cache)
+        .setSharedCache(sharedCache)
+        .setUseClassIndexes(useClassIndexes);
+  }
+
+  private ParseDepth queriesParseDepth() {
+    ParseDepth depth = parseDepth;
+    for (StandingQuery query : queries)
+      depth = ParseDepth.deepest(depth, FilterAnalyzer.requiredParseDepth(query.getFilter()));
+    return depth;
+  }
+
+  private PathScope scopeFor(ClassFilter filter) {
+    PathScope scope = new PathScope(includedPackages, excludedPackages, includedPaths, excludedPaths);
+    // Filters looking up other classes need them found, whatever their names
+    if (FilterAnalyzer.needsHierarchy(filter)) return scope;
+    return scope.restrictClassEntries(FilterAnalyzer.classEntryNames(filter));
+  }
+
+  /**
+   * @return an index to fill while scanning for the filter, if the filter
+   * requires an annotation, or null
+   */
+  private static AnnotationIndex annotationIndexFor(ClassFilter filter) {
+    return FilterAnalyzer.requiredAnnotation(filter) == null ? null : new AnnotationIndex();
+  }
+
+  private Collection<ClassInfo> filterFoundClasses(ClassFilter filter, Map<String, ClassInfo> foundClasses) {
+    return filterFoundClasses(filter, foundClasses, null);
+  }
+
+  /**
+   * @param foundClasses    the found classes, by name, which are only read
+   * @param annotationIndex the found classes by annotation, filled by the
+   *                        scan, or null to judge every found class
+   */
+  private Collection<ClassInfo> filterFoundClasses(ClassFilter filter, Map<String, ClassInfo> foundClasses,
+                                                   AnnotationIndex annotationIndex) {
     log.info("Loaded " + foundClasses.size() + " classes.");
 
-    Collection<ClassInfo> filteredClasses = filterClasses(filter, foundClasses);
+    Collection<ClassInfo> filteredClasses;
+    if (annotationIndex == null) {
+      filteredClasses = filterClasses(filter, foundClasses, foundClasses.values());
+    } else {
+      // Only the classes carrying the annotation the filter requires can pass it
+      Annotated annotated = FilterAnalyzer.requiredAnnotation(filter);
+      annotationIndex.retainFound(foundClasses);
+      Collection<ClassInfo> candidates =
+          annotationIndex.getClassesAnnotatedWith(annotated.getAnnotationName(), annotated.getRetention());
+      filteredClasses = filter == annotated ? candidates : filterClasses(filter, foundClasses, candidates);
+    }
 
     if (filteredClasses.size() == 0 && errorIfResultEmpty) {
       log.warn("Found no classes, throwing exception");
@@ -237,17 +951,27 @@ public class ClassFinder {
     } else {
       log.info("Returning " + filteredClasses.size() + " total classes");
     }
-    foundClasses.clear();
     return filteredClasses;
   }
 
   private Collection<ClassInfo> filterClasses(ClassFilter filter, Map<String, ClassInfo> foundClasses) {
+    return filterClasses(filter, foundClasses, foundClasses.values());
+  }
+
+  /**
+   * @param candidates the found classes to judge
+   */
+  private Collection<ClassInfo> filterClasses(ClassFilter filter, Map<String, ClassInfo> foundClasses,
+                                              Collection<ClassInfo> candidates) {
     Collection<ClassInfo> classes = new ArrayList<>();
-    for (ClassInfo classInfo : foundClasses.values()) {
+    ClassHierarchyResolver hierarchyResolver = FilterAnalyzer.needsHierarchy(filter)
+        ? ClassHierarchyResolver.forAllClasses(foundClasses)
+        : new ClassHierarchyResolver(foundClasses);
+    for (ClassInfo classInfo : candidates) {
       String className = classInfo.getClassName();
       String locationName = classInfo.getClassLocation().getPath();
       log.trace("Looking at " + locationName + " (" + className + ")");
-      if ((filter == null) || (filter.accept(classInfo, new ClassHierarchyResolver(foundClasses)))) {
+      if ((filter == null) || (filter.accept(classInfo, hierarchyResolver))) {
         log.trace("Filter accepted " + className);
         classes.add(classInfo);
       } else {
@@ -256,4 +980,14 @@ public class ClassFinder {
     }
     return classes;
   }
-}
\ No newline at end of file
+
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (NoSuchMethodException ex) {
+      throw new UnsupportedOperationException("Virtual threads need Java 21 or later");
+    } catch (ReflectiveOperationException ex) {
+      throw new UnsupportedOperationException("Unable to create a virtual thread executor", ex);
+    }
+  }
+}
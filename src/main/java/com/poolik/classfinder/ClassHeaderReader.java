@@ -0,0 +1,162 @@
+package com.poolik.classfinder;
+
+import com.poolik.classfinder.info.ClassInfo;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Decodes just the header of a class file: the constant pool, access
+ * flags, this and super class and the interfaces table. Everything after
+ * the interfaces table is never looked at.</p>
+ *
+ * <p>The {@link ClassInfo} produced is the same one the ASM based
+ * {@link ClassInfoClassVisitor} produces at {@link ParseDepth#HEADER}.
+ * Class files newer than ASM can read, those of Java 8 and later, are
+ * refused the same way ASM refuses them, so both find the same
+ * classes.</p>
+ *
+ * @see ScanMode#HEADER_READER
+ */
+final class ClassHeaderReader {
+  private static final int MAGIC = 0xCAFEBABE;
+  private static final int MAX_MAJOR_VERSION = Opcodes.V1_7;
+  private static final int HEADER_SIZE = 10;
+
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_INTEGER = 3;
+  private static final int CONSTANT_FLOAT = 4;
+  private static final int CONSTANT_LONG = 5;
+  private static final int CONSTANT_DOUBLE = 6;
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_STRING = 8;
+  private static final int CONSTANT_FIELDREF = 9;
+  private static final int CONSTANT_METHODREF = 10;
+  private static final int CONSTANT_INTERFACE_METHODREF = 11;
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+  private static final int CONSTANT_METHOD_HANDLE = 15;
+  private static final int CONSTANT_METHOD_TYPE = 16;
+  private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+
+  private final ByteBuffer buf;
+  private final int start;
+  private int[] constantOffsets;
+
+  private ClassHeaderReader(ByteBuffer buf) {
+    this.buf = buf;
+    this.start = buf.position();
+  }
+
+  /**
+   * Read the header of the class file between the buffer's position and
+   * limit. The buffer's position is left unchanged.
+   *
+   * @param buf      the class file bytes
+   * @param location file (jar, zip) or directory the class was found in
+   * @return the class information
+   * @throws ClassFinderException if the bytes are not a class file, or one
+   *                              newer than ASM can read
+   */
+  static ClassInfo read(ByteBuffer buf, File location) throws ClassFinderException {
+    return new ClassHeaderReader(buf).read(location);
+  }
+
+  private ClassInfo read(File location) {
+    if (buf.remaining() < HEADER_SIZE || buf.getInt(start) != MAGIC)
+      throw new ClassFinderException("Not a class file, bad magic number");
+    int majorVersion = readUnsignedShort(start + 6);
+    if (majorVersion > MAX_MAJOR_VERSION)
+      throw new ClassFinderException("Unsupported class file version " + majorVersion);
+
+    int offset = readConstantPool(start + 8);
+    int access = readUnsignedShort(offset);
+    String name = readClassName(readUnsignedShort(offset + 2));
+    int superIndex = readUnsignedShort(offset + 4);
+    String superName = superIndex == 0 ? null : readClassName(superIndex);
+
+    int interfaceCount = readUnsignedShort(offset + 6);
+    String[] interfaces = new String[interfaceCount];
+    for (int i = 0; i < interfaceCount; i++)
+      interfaces[i] = readClassName(readUnsignedShort(offset + 8 + 2 * i));
+
+    return new ClassInfo(name, superName, interfaces, access, location);
+  }
+
+  /**
+   * Record where every constant pool entry starts.
+   *
+   * @param offset where the constant pool count is
+   * @return the offset of the access flags that follow the pool
+   */
+  private int readConstantPool(int offset) {
+    int count = readUnsignedShort(offset);
+    constantOffsets = new int[count];
+    offset += 2;
+    for (int i = 1; i < count; i++) {
+      constantOffsets[i] = offset;
+      int tag = buf.get(offset) & 0xFF;
+      switch (tag) {
+        case CONSTANT_UTF8:
+          offset += 3 + readUnsignedShort(offset + 1);
+          break;
+        case CONSTANT_LONG:
+        case CONSTANT_DOUBLE:
+          offset += 9;
+          i++;
+          break;
+        case CONSTANT_INTEGER:
+        case CONSTANT_FLOAT:
+        case CONSTANT_FIELDREF:
+        case CONSTANT_METHODREF:
+        case CONSTANT_INTERFACE_METHODREF:
+        case CONSTANT_NAME_AND_TYPE:
+        case CONSTANT_INVOKE_DYNAMIC:
+          offset += 5;
+          break;
+        case CONSTANT_METHOD_HANDLE:
+          offset += 4;
+          break;
+        case CONSTANT_CLASS:
+        case CONSTANT_STRING:
+        case CONSTANT_METHOD_TYPE:
+          offset += 3;
+          break;
+        default:
+          throw new ClassFinderException("Unknown constant pool tag " + tag + " at offset " + (offset - start));
+      }
+    }
+    return offset;
+  }
+
+  private String readClassName(int classIndex) {
+    int classOffset = constantOffsets[classIndex];
+    return readUtf8(constantOffsets[readUnsignedShort(classOffset + 1)]);
+  }
+
+  /**
+   * Decode a CONSTANT_Utf8 entry, which holds modified UTF-8.
+   */
+  private String readUtf8(int offset) {
+    int length = readUnsignedShort(offset + 1);
+    int pos = offset + 3;
+    int end = pos + length;
+    char[] chars = new char[length];
+    int count = 0;
+    while (pos < end) {
+      int c = buf.get(pos++) & 0xFF;
+      if (c < 0x80) {
+        chars[count++] = (char) c;
+      } else if (c < 0xE0) {
+        chars[count++] = (char) (((c & 0x1F) << 6) | (buf.get(pos++) & 0x3F));
+      } else {
+        chars[count++] = (char) (((c & 0x0F) << 12) | ((buf.get(pos++) & 0x3F) << 6) | (buf.get(pos++) & 0x3F));
+      }
+    }
+    return new String(chars, 0, count);
+  }
+
+  private int readUnsignedShort(int offset) {
+    return buf.getShort(offset) & 0xFFFF;
+  }
+}
@@ -0,0 +1,141 @@
+package com.poolik.classfinder;
+
+import com.poolik.classfinder.info.ClassInfo;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Found classes, indexed by the classes they extend and the interfaces
+ * they implement, so the classes below a type are looked up rather than
+ * searched for. Only the direct subtypes of each type are kept; the
+ * classes further below are found by following them, so a lookup costs as
+ * much as the number of classes it finds, whatever the number of classes
+ * found in all.</p>
+ *
+ * <p>Types are looked up by name, so the class or interface looked for
+ * doesn't have to be loaded, or even found. As with
+ * {@link com.poolik.classfinder.filter.Subclass}, the hierarchy is only
+ * followed through found classes.</p>
+ *
+ * <p>A <tt>ClassHierarchy</tt> can be used by several threads at once.</p>
+ *
+ * @see ClassFinder#findHierarchy()
+ */
+public class ClassHierarchy {
+  private final Map<String, ClassInfo> classes;
+  private final Map<String, List<ClassInfo>> subclasses = new HashMap<>();
+  private final Map<String, List<ClassInfo>> implementors = new HashMap<>();
+
+  /**
+   * @param classes the found classes, by name. They must not change while
+   *                the hierarchy is used.
+   */
+  public ClassHierarchy(Map<String, ClassInfo> classes) {
+    this.classes = classes;
+    for (ClassInfo classInfo : classes.values()) {
+      if (classInfo.getSuperClassName() != null) add(subclasses, classInfo.getSuperClassName(), classInfo);
+      if (classInfo.getInterfaces() == null) continue;
+      for (String interfaceName : classInfo.getInterfaces())
+        add(implementors, interfaceName, classInfo);
+    }
+  }
+
+  /**
+   * @return the found class of the name, or null
+   */
+  public ClassInfo get(String className) {
+    return classes.get(className);
+  }
+
+  public Collection<ClassInfo> getClasses() {
+    return Collections.unmodifiableCollection(classes.values());
+  }
+
+  /**
+   * @return the classes extending the class, directly or through other
+   * classes
+   */
+  public Collection<ClassInfo> getSubclassesOf(String className) {
+    return below(className, false);
+  }
+
+  /**
+   * @return the classes, not interfaces, implementing the interface,
+   * directly, through their super classes or through interfaces extending
+   * it
+   */
+  public Collection<ClassInfo> getImplementorsOf(String interfaceName) {
+    Collection<ClassInfo> found = new ArrayList<>();
+    for (ClassInfo classInfo : below(interfaceName, true)) {
+      if (!isInterface(classInfo)) found.add(classInfo);
+    }
+    return found;
+  }
+
+  /**
+   * @return the interfaces extending the interface, directly or through
+   * other interfaces
+   */
+  public Collection<ClassInfo> getSubinterfacesOf(String interfaceName) {
+    Collection<ClassInfo> found = new ArrayList<>();
+    for (ClassInfo classInfo : below(interfaceName, true)) {
+      if (isInterface(classInfo)) found.add(classInfo);
+    }
+    return found;
+  }
+
+  /**
+   * @return every class and interface below the type, the classes
+   * {@link com.poolik.classfinder.filter.Subclass} accepts
+   */
+  public Collection<ClassInfo> getSubtypesOf(String typeName) {
+    return below(typeName, true);
+  }
+
+  private Collection<ClassInfo> below(String typeName, boolean throughInterfaces) {
+    Collection<ClassInfo> found = new ArrayList<>();
+    Set<String> visited = new HashSet<>();
+    Deque<String> toVisit = new ArrayDeque<>();
+    visited.add(typeName);
+    toVisit.push(typeName);
+    while (!toVisit.isEmpty()) {
+      String type = toVisit.pop();
+      visit(subclasses.get(type), visited, toVisit, found);
+      if (throughInterfaces) visit(implementors.get(type), visited, toVisit, found);
+    }
+    return found;
+  }
+
+  private void visit(List<ClassInfo> subtypes, Set<String> visited, Deque<String> toVisit, Collection<ClassInfo> found) {
+    if (subtypes == null) return;
+    for (ClassInfo subtype : subtypes) {
+      if (visited.add(subtype.getClassName())) {
+        found.add(subtype);
+        toVisit.push(subtype.getClassName());
+      }
+    }
+  }
+
+  private static boolean isInterface(ClassInfo classInfo) {
+    return (classInfo.getModifier() & Modifier.INTERFACE) != 0;
+  }
+
+  private static void add(Map<String, List<ClassInfo>> index, String type, ClassInfo subtype) {
+    List<ClassInfo> subtypes = index.get(type);
+    if (subtypes == null) {
+      subtypes = new ArrayList<>(2);
+      index.put(type, subtypes);
+    }
+    subtypes.add(subtype);
+  }
+}
@@ -2,53 +2,169 @@ package com.poolik.classfinder;
 
 import com.poolik.classfinder.info.ClassInfo;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * <p>Looks up the super classes and interfaces of found classes, among the
+ * classes found by the same scan. What is found for a class is kept, so
+ * the classes above it are looked up once however many classes below them
+ * are asked about, and one resolver should be shared by all the classes
+ * of a scan. A resolver can be used by several threads at once.</p>
+ *
+ * <p>A resolver made by {@link #forAllClasses} lays the hierarchy of every
+ * class out in a {@link HierarchyGraph} up front. Asking whether a class
+ * is below another then takes two lookups by name in a hash table, for the
+ * two classes' ids, and a binary search of the sorted ids of the
+ * <i>k</i> classes or interfaces above the class: O(log <i>k</i>), not
+ * constant time. That pays off when most classes of a scan are asked
+ * about; a resolver made by the constructor only looks up the classes it
+ * is asked about.</p>
+ *
+ * <p>Classes in a cycle, which no compiler writes but classes of the same
+ * name found in different places can make, are followed as if the edge
+ * closing the cycle weren't there.</p>
+ */
 public class ClassHierarchyResolver {
 
   private final Map<String,ClassInfo> foundClasses;
+  private final ConcurrentMap<String, Map<String, ClassInfo>> superClasses = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Map<String, ClassInfo>> interfaces = new ConcurrentHashMap<>();
+  private final HierarchyGraph graph;
 
+  /**
+   * @param foundClasses the classes of the scan, by name. They must not
+   *                     change while the resolver is used.
+   */
   public ClassHierarchyResolver(Map<String, ClassInfo> foundClasses) {
+    this(foundClasses, null);
+  }
+
+  private ClassHierarchyResolver(Map<String, ClassInfo> foundClasses, HierarchyGraph graph) {
     this.foundClasses = foundClasses;
+    this.graph = graph;
+  }
+
+  /**
+   * Make a resolver for judging every class of a scan, laying their
+   * hierarchy out up front.
+   *
+   * @param foundClasses the classes of the scan, by name. They must not
+   *                     change while the resolver is used.
+   */
+  public static ClassHierarchyResolver forAllClasses(Map<String, ClassInfo> foundClasses) {
+    return new ClassHierarchyResolver(foundClasses, new HierarchyGraph(foundClasses));
+  }
+
+  /**
+   * @return true if the found class of the name is one of the class's
+   * super classes, however far above it
+   */
+  public boolean isSubclassOf(ClassInfo classInfo, String superClassName) {
+    int id = graph == null ? -1 : graph.idOf(classInfo);
+    if (id < 0) return findAllSuperClasses(classInfo).containsKey(superClassName);
+    int superClassId = graph.idOf(superClassName);
+    return superClassId >= 0 && graph.isSubclassOf(id, superClassId);
   }
 
+  /**
+   * @return true if the class implements the found interface of the name,
+   * as {@link #findAllInterfaces} finds them
+   */
+  public boolean implementsInterface(ClassInfo classInfo, String interfaceName) {
+    int id = graph == null ? -1 : graph.idOf(classInfo);
+    if (id < 0) return findAllInterfaces(classInfo).containsKey(interfaceName);
+    int interfaceId = graph.idOf(interfaceName);
+    return interfaceId >= 0 && graph.implementsInterface(id, interfaceId);
+  }
+
+  /**
+   * @return true if the found class or interface of the name is above the
+   * class
+   */
+  public boolean isSubtypeOf(ClassInfo classInfo, String typeName) {
+    return isSubclassOf(classInfo, typeName) || implementsInterface(classInfo, typeName);
+  }
+
+  /**
+   * @return the found super classes of the class, however far above it,
+   * by name. The map can't be changed.
+   */
   public Map<String, ClassInfo> findAllSuperClasses(ClassInfo classInfo) {
-    Map<String, ClassInfo> superClasses = new HashMap<>();
+    return findAllSuperClasses(classInfo, new HashSet<String>());
+  }
+
+  /**
+   * @param below the classes whose super classes are being looked up,
+   *              this one and those below it; a super class among them
+   *              closes a cycle, which is followed no further
+   */
+  private Map<String, ClassInfo> findAllSuperClasses(ClassInfo classInfo, Set<String> below) {
+    boolean found = isFound(classInfo);
+    Map<String, ClassInfo> result = found ? superClasses.get(classInfo.getClassName()) : null;
+    if (result != null) return result;
+    below.add(classInfo.getClassName());
+
+    Map<String, ClassInfo> all = new HashMap<>();
     String superClassName = classInfo.getSuperClassName();
     if (superClassName != null) {
       ClassInfo superClassInfo = foundClasses.get(superClassName);
-      if (superClassInfo != null) {
-        superClasses.put(superClassName, superClassInfo);
-        superClasses.putAll(findAllSuperClasses(superClassInfo));
+      if (superClassInfo != null && !below.contains(superClassName)) {
+        all.put(superClassName, superClassInfo);
+        all.putAll(findAllSuperClasses(superClassInfo, below));
       }
     }
-    return superClasses;
+    below.remove(classInfo.getClassName());
+    result = Collections.unmodifiableMap(all);
+    if (found) superClasses.putIfAbsent(classInfo.getClassName(), result);
+    return result;
   }
 
+  /**
+   * @return the found interfaces the class implements, directly, through
+   * its super classes or by extending other interfaces, by name. The map
+   * can't be changed.
+   */
   public Map<String, ClassInfo> findAllInterfaces(ClassInfo classInfo) {
-    Map<String, ClassInfo> interfaces = new HashMap<>();
-    interfaces.putAll(recursivelyLoadnterfacesOfSuperclass(classInfo));
-
-    for (String interfaceName : classInfo.getInterfaces()) {
-      ClassInfo intfClassInfo = foundClasses.get(interfaceName);
-      if (intfClassInfo != null) {
-        interfaces.put(interfaceName, intfClassInfo);
-        interfaces.putAll(findAllInterfaces(intfClassInfo));
-      }
-    }
-    return interfaces;
+    return findAllInterfaces(classInfo, new HashSet<String>());
   }
 
-  private Map<String, ClassInfo> recursivelyLoadnterfacesOfSuperclass(ClassInfo classInfo) {
-    Map<String, ClassInfo> interfaces = new HashMap<>();
+  private Map<String, ClassInfo> findAllInterfaces(ClassInfo classInfo, Set<String> below) {
+    boolean found = isFound(classInfo);
+    Map<String, ClassInfo> result = found ? interfaces.get(classInfo.getClassName()) : null;
+    if (result != null) return result;
+    below.add(classInfo.getClassName());
+
+    Map<String, ClassInfo> all = new HashMap<>();
     String superClassName = classInfo.getSuperClassName();
     if (superClassName != null) {
       ClassInfo superClassInfo = foundClasses.get(superClassName);
-      if (superClassInfo != null) {
-        interfaces.putAll(findAllInterfaces(superClassInfo));
+      if (superClassInfo != null && !below.contains(superClassName)) all.putAll(findAllInterfaces(superClassInfo, below));
+    }
+    for (String interfaceName : classInfo.getInterfaces()) {
+      ClassInfo intfClassInfo = foundClasses.get(interfaceName);
+      if (intfClassInfo != null && !below.contains(interfaceName)) {
+        all.put(interfaceName, intfClassInfo);
+        all.putAll(findAllInterfaces(intfClassInfo, below));
       }
     }
-    return interfaces;
+    below.remove(classInfo.getClassName());
+    result = Collections.unmodifiableMap(all);
+    if (found) interfaces.putIfAbsent(classInfo.getClassName(), result);
+    return result;
+  }
+
+  /**
+   * Only what is found for the classes of the scan is kept; another class
+   * of the same name, such as one found in a second place, may have other
+   * super classes.
+   */
+  private boolean isFound(ClassInfo classInfo) {
+    return foundClasses.get(classInfo.getClassName()) == classInfo;
   }
-}
\ No newline at end of file
+}
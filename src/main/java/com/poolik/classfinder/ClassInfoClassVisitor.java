@@ -52,7 +52,6 @@ import org.objectweb.asm.FieldVisitor;
 import org.objectweb.asm.MethodVisitor;
 
 import java.io.File;
-import java.util.Map;
 
 /**
  * <p>An ASM <tt>ClassVisitor</tt> that records the appropriate class
@@ -68,22 +67,27 @@ import java.util.Map;
  */
 class ClassInfoClassVisitor extends EmptyVisitor {
 
-  private Map<String, ClassInfo> foundClasses;
   private File location;
+  private ParseDepth parseDepth;
   private ClassInfo currentClass = null;
 
   /**
    * Constructor
    *
-   * @param foundClasses where to store the class information. The
-   *                     {@link ClassInfo} records are stored in the map,
-   *                     indexed by class name.
-   * @param location     file (jar, zip) or directory containing classes
-   *                     being processed by this visitor
+   * @param location   file (jar, zip) or directory containing classes
+   *                   being processed by this visitor
+   * @param parseDepth what to record besides the class header
    */
-  ClassInfoClassVisitor(Map<String, ClassInfo> foundClasses, File location) {
-    this.foundClasses = foundClasses;
+  ClassInfoClassVisitor(File location, ParseDepth parseDepth) {
     this.location = location;
+    this.parseDepth = parseDepth;
+  }
+
+  /**
+   * @return the visited class, or null if no class has been visited yet
+   */
+  ClassInfo getClassInfo() {
+    return currentClass;
   }
 
   /**
@@ -104,14 +108,11 @@ class ClassInfoClassVisitor extends EmptyVisitor {
                     String signature,
                     String superName,
                     String[] interfaces) {
-    ClassInfo classInfo = new ClassInfo(name,
+    currentClass = new ClassInfo(name,
         superName,
         interfaces,
         access,
         location);
-
-    foundClasses.put(classInfo.getClassName(), classInfo);
-    currentClass = classInfo;
   }
 
   /**
@@ -131,6 +132,8 @@ class ClassInfoClassVisitor extends EmptyVisitor {
                                  String signature,
                                  Object value) {
     assert (currentClass != null);
+    if (!parseDepth.includes(ParseDepth.MEMBERS))
+      return null;
     if (signature == null)
       signature = description + " " + name;
     return currentClass.visitField(access, name, description,
@@ -154,6 +157,8 @@ class ClassInfoClassVisitor extends EmptyVisitor {
                                    String signature,
                                    String[] exceptions) {
     assert (currentClass != null);
+    if (!parseDepth.includes(ParseDepth.MEMBERS))
+      return null;
     if (signature == null)
       signature = name + description;
     return currentClass.visitMethod(access, name, description,
@@ -163,6 +168,8 @@ class ClassInfoClassVisitor extends EmptyVisitor {
   @Override
   public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
     assert (currentClass != null);
+    if (!parseDepth.includes(ParseDepth.ANNOTATIONS))
+      return null;
     return currentClass.visitAnnotation(desc, visible);
   }
 
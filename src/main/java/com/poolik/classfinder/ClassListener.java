@@ -0,0 +1,13 @@
+package com.poolik.classfinder;
+
+import com.poolik.classfinder.info.ClassInfo;
+
+/**
+ * Told of every class as soon as it has been parsed, on the thread that
+ * parsed it, so it may be called from several threads at once.
+ *
+ * @see ParallelClassLoader#setClassListener
+ */
+public interface ClassListener {
+  public void found(ClassInfo classInfo);
+}
@@ -0,0 +1,120 @@
+package com.poolik.classfinder;
+
+import com.poolik.classfinder.info.ClassInfo;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>The classes of a running search, handed out as they are found. At
+ * most a fixed number of found classes are held waiting to be taken; while
+ * that many are waiting, the threads of the search wait too, so a slow
+ * reader slows the search down rather than filling up the heap.</p>
+ *
+ * <p>A stream must be read to the end or closed, otherwise the search
+ * keeps waiting for it. Closing it cancels the search.</p>
+ *
+ * @see ClassFinder#streamClasses(com.poolik.classfinder.filter.ClassFilter)
+ */
+public class ClassStream implements Iterator<ClassInfo>, Closeable {
+  private static final Object END = new Object();
+  private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+  private final BlockingQueue<Object> queue;
+  private volatile Future<?> search;
+  private volatile boolean closed;
+  private Object next;
+
+  ClassStream(int bufferSize) {
+    if (bufferSize < 1) throw new IllegalArgumentException("Buffer size must be at least 1, was " + bufferSize);
+    queue = new ArrayBlockingQueue<>(bufferSize);
+  }
+
+  void setSearch(Future<?> search) {
+    this.search = search;
+    if (closed) search.cancel(false);
+  }
+
+  /**
+   * Hand a class over, waiting while the buffer is full.
+   */
+  void put(ClassInfo classInfo) {
+    offer(classInfo);
+  }
+
+  /**
+   * Mark the end of the search.
+   *
+   * @param failure why the search failed, or null if it didn't
+   */
+  void end(Throwable failure) {
+    offer(failure != null ? new Failure(failure) : END);
+  }
+
+  private void offer(Object element) {
+    try {
+      while (!closed && !queue.offer(element, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+        // waiting for the reader to take something
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Wait until the next class has been found or the search is over.
+   *
+   * @throws ClassFinderException if the search failed or the thread is
+   *                              interrupted while waiting
+   */
+  @Override
+  public boolean hasNext() {
+    if (next == null) {
+      try {
+        next = queue.take();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new ClassFinderException("Interrupted while finding classes", ex);
+      }
+    }
+    if (next instanceof Failure) throw new ClassFinderException("Unable to find classes", ((Failure) next).cause);
+    return next != END;
+  }
+
+  @Override
+  public ClassInfo next() {
+    if (!hasNext()) throw new NoSuchElementException();
+    ClassInfo classInfo = (ClassInfo) next;
+    next = null;
+    return classInfo;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException("Found classes can't be removed");
+  }
+
+  /**
+   * Stop the search and drop the classes waiting to be taken.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    if (search != null) search.cancel(false);
+    queue.clear();
+    next = END;
+  }
+
+  private static class Failure {
+    final Throwable cause;
+
+    Failure(Throwable cause) {
+      this.cause = cause;
+    }
+  }
+}
@@ -0,0 +1,421 @@
+package com.poolik.classfinder;
+
+import com.poolik.classfinder.info.ClassInfo;
+import com.poolik.classfinder.io.DirUtils;
+import com.poolik.classfinder.io.FileUtil;
+import com.poolik.classfinder.io.PathScope;
+import com.poolik.classfinder.io.visitor.ClassPathFileVisitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * <p>Keeps the classes of some places to search in memory, current with
+ * what is on disk. Every directory below a place to search is registered
+ * with a {@link WatchService}, and when a class file or archive is
+ * created, modified or deleted only that file is parsed again. Archives
+ * given as places to search are watched through the directory they are
+ * in.</p>
+ *
+ * <p>Changes are picked up on a daemon thread of the watcher's own. Events
+ * arriving in quick succession are handled together, so a build rewriting
+ * many class files is parsed in one go. How soon a change is noticed
+ * depends on the platform's <tt>WatchService</tt>; some poll.</p>
+ *
+ * <p>Each batch of events is applied to a working copy of the classes
+ * only the watcher's thread sees. Once the batch is handled, a copy is
+ * published for {@link #getClasses()} in one step, so a search never sees
+ * half a batch. {@link StandingQuery Standing queries} added to the
+ * watcher are told of the classes that changed as the copy is
+ * published.</p>
+ */
+class ClassWatcher implements Closeable {
+  private static final Logger log = LoggerFactory.getLogger(ClassWatcher.class);
+  private static final long SETTLE_MILLIS = 50;
+
+  private final ParallelClassLoader classLoader;
+  private final PathScope scope;
+  private final LinkOption[] linkOptions;
+  private final WatchService watchService;
+  private final Map<WatchKey, WatchedDirectory> directories = new HashMap<>();
+  private final Map<Path, WatchKey> keys = new HashMap<>();
+  private final Map<Path, File> archivePlaces = new HashMap<>();
+  private final Map<Path, List<ClassInfo>> sources = new HashMap<>();
+  private final Map<String, ClassInfo> classes = new HashMap<>();
+  private volatile Map<String, ClassInfo> published = Collections.emptyMap();
+  private final Map<String, ClassInfo> changedClasses = new HashMap<>();
+  private final List<StandingQuery> queries = new CopyOnWriteArrayList<>();
+  private final Thread thread;
+  private volatile boolean closed;
+
+  /**
+   * Find the classes of the places to search and start watching them.
+   *
+   * @param classLoader parses the classes; its class listener is replaced
+   * @param scope       which class files, archives and directories of a
+   *                    directory to search are looked at
+   * @param followLinks whether symbolic links to directories are followed
+   */
+  ClassWatcher(ParallelClassLoader classLoader, Collection<File> placesToSearch, PathScope scope, boolean followLinks) {
+    this.classLoader = classLoader;
+    this.scope = scope;
+    this.linkOptions = followLinks ? new LinkOption[0] : new LinkOption[]{LinkOption.NOFOLLOW_LINKS};
+    try {
+      this.watchService = FileSystems.getDefault().newWatchService();
+    } catch (IOException ex) {
+      throw new ClassFinderException("Unable to watch for changes", ex);
+    }
+    Update update = new Update();
+    for (File place : placesToSearch) {
+      if (FileUtil.isArchive(place.getName())) {
+        Path archive = place.toPath().toAbsolutePath();
+        archivePlaces.put(archive, place);
+        register(archive.getParent(), null);
+        update.archives.put(archive, place);
+      } else {
+        log.info("Watching classes in " + place.getPath());
+        walk(place, place.toPath(), update);
+      }
+    }
+    update.apply();
+    changedClasses.clear();
+    published = Collections.unmodifiableMap(new HashMap<>(classes));
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        watch();
+      }
+    }, "classfinder-watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * @return the classes as of the last batch of changes handled, by name.
+   * The map can't be changed and is never changed by the watcher, so it is
+   * handed out as it is.
+   */
+  Map<String, ClassInfo> getClasses() {
+    return published;
+  }
+
+  /**
+   * Judge every class with the query, then keep it told of changes. The
+   * query starts from the classes last published and is told of every
+   * batch published after them, as publishing waits for this.
+   */
+  synchronized void addQuery(StandingQuery query) {
+    query.update(published, null);
+    queries.add(query);
+  }
+
+  void removeQuery(StandingQuery query) {
+    queries.remove(query);
+  }
+
+  /**
+   * Stop watching. The classes found so far are kept.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    try {
+      watchService.close();
+    } catch (IOException ex) {
+      log.error("Unable to stop watching for changes: ", ex);
+    }
+  }
+
+  private void watch() {
+    try {
+      while (!closed) {
+        Map<Path, WatchedDirectory> changed = new LinkedHashMap<>();
+        WatchKey key = watchService.take();
+        do {
+          collectChanges(key, changed);
+        } while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null);
+        Update update = new Update();
+        for (Map.Entry<Path, WatchedDirectory> change : changed.entrySet()) {
+          try {
+            handleChange(change.getKey(), change.getValue(), update);
+          } catch (RuntimeException ex) {
+            log.error("Unable to handle change of '" + change.getKey() + "': ", ex);
+          }
+        }
+        update.apply();
+        publish();
+      }
+    } catch (InterruptedException | ClosedWatchServiceException ex) {
+      // closed
+    } catch (RuntimeException ex) {
+      log.error("Stopped watching for changes: ", ex);
+    }
+  }
+
+  private void collectChanges(WatchKey key, Map<Path, WatchedDirectory> changed) {
+    WatchedDirectory directory = directories.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (directory == null) continue;
+      if (event.kind() == OVERFLOW) {
+        // Events were lost, so everything in the directory may have changed
+        log.warn("Missed changes in '" + directory.path + "', looking at all of it again");
+        changed.put(directory.path, directory);
+        for (Path archive : archivePlaces.keySet()) {
+          if (archive.getParent().equals(directory.path.toAbsolutePath())) changed.put(archive, directory);
+        }
+      } else {
+        changed.put(directory.path.resolve((Path) event.context()), directory);
+      }
+    }
+    if (!key.reset()) {
+      directories.remove(key);
+      if (directory != null) keys.remove(directory.path);
+    }
+  }
+
+  private void handleChange(Path file, WatchedDirectory directory, Update update) {
+    File archivePlace = archivePlaces.get(file.toAbsolutePath());
+    if (archivePlace != null) {
+      update.archives.put(file.toAbsolutePath(), archivePlace);
+      return;
+    }
+    File location = directory.location;
+    if (location == null) return;
+    if (Files.isDirectory(file, linkOptions)) {
+      if (file.equals(directory.path) && keys.containsKey(file)) {
+        // The directory itself overflowed; drop what is gone, then find
+        // anything new in it
+        removeSources(file, true);
+      } else if (keys.containsKey(file)) {
+        return;
+      }
+      if (file.equals(location.toPath()) || scope.isEverything()
+          || scope.includesDirectory(ParallelClassLoader.relativePath(location, file))) walk(location, file, update);
+    } else if (!Files.exists(file, linkOptions)) {
+      removeSources(file, false);
+    } else {
+      String name = file.getFileName().toString();
+      if (name.endsWith(".class")) {
+        if (scope.isEverything() || scope.includesClassFile(ParallelClassLoader.relativePath(location, file)))
+          update.addClassFile(location, file);
+      } else if (FileUtil.isArchive(name)) {
+        if (scope.isEverything() || scope.includesArchive(ParallelClassLoader.relativePath(location, file)))
+          update.archives.put(file, file.toFile());
+      }
+    }
+  }
+
+  /**
+   * Register a directory and the directories below it, and add their class
+   * files and archives to the update.
+   */
+  private void walk(final File location, Path start, final Update update) {
+    register(start, location);
+    try {
+      DirUtils.walk(start, new ClassPathFileVisitor(start) {
+        @Override
+        protected void visitClassFile(Path file, BasicFileAttributes attrs) {
+          if (scope.isEverything() || scope.includesClassFile(ParallelClassLoader.relativePath(location, file)))
+            update.addClassFile(location, file);
+        }
+
+        @Override
+        protected void visitArchive(Path file, BasicFileAttributes attrs) {
+          if (scope.isEverything() || scope.includesArchive(ParallelClassLoader.relativePath(location, file)))
+            update.archives.put(file, file.toFile());
+        }
+
+        @Override
+        protected FileVisitResult visitDirectory(Path dir, BasicFileAttributes attrs) {
+          if (!scope.isEverything() && !scope.includesDirectory(ParallelClassLoader.relativePath(location, dir)))
+            return FileVisitResult.SKIP_SUBTREE;
+          register(dir, location);
+          return FileVisitResult.CONTINUE;
+        }
+      }, linkOptions.length == 0);
+    } catch (IOException ex) {
+      log.error("Failed to walk directory '" + start + "' ", ex);
+    }
+  }
+
+  /**
+   * @param location the directory searched that this directory is in, or
+   *                 null if it is only watched for archives given as
+   *                 places to search
+   */
+  private void register(Path dir, File location) {
+    try {
+      WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+      WatchedDirectory previous = directories.get(key);
+      if (previous == null || previous.location == null) {
+        directories.put(key, new WatchedDirectory(dir, location));
+        keys.put(dir, key);
+      }
+    } catch (IOException ex) {
+      log.error("Can't watch '" + dir + "': ", ex);
+    }
+  }
+
+  /**
+   * Forget the classes of a file, or of every file below a directory.
+   *
+   * @param keepWatching true to leave the directories registered
+   */
+  private void removeSources(Path path, boolean keepWatching) {
+    for (Path source : new ArrayList<>(sources.keySet())) {
+      if (source.startsWith(path)) replaceSource(source, Collections.<ClassInfo>emptyList());
+    }
+    if (keepWatching) return;
+    for (Iterator<Map.Entry<Path, WatchKey>> it = keys.entrySet().iterator(); it.hasNext(); ) {
+      Map.Entry<Path, WatchKey> entry = it.next();
+      if (entry.getKey().startsWith(path)) {
+        entry.getValue().cancel();
+        directories.remove(entry.getValue());
+        it.remove();
+      }
+    }
+  }
+
+  private void replaceSource(Path source, List<ClassInfo> found) {
+    List<ClassInfo> previous = found.isEmpty() ? sources.remove(source) : sources.put(source, found);
+    if (previous != null) {
+      for (ClassInfo classInfo : previous) {
+        String className = classInfo.getClassName();
+        if (classes.get(className) == classInfo && !restore(className)) {
+          classes.remove(className);
+          classChanged(className, classInfo);
+        }
+      }
+    }
+    for (ClassInfo classInfo : found) {
+      ClassInfo replaced = classes.put(classInfo.getClassName(), classInfo);
+      if (replaced != classInfo) classChanged(classInfo.getClassName(), replaced);
+    }
+  }
+
+  private void classChanged(String className, ClassInfo previous) {
+    if (!changedClasses.containsKey(className)) changedClasses.put(className, previous);
+  }
+
+  /**
+   * Publish the classes as they are after the batch, and tell the queries
+   * of the classes changed since they were last told.
+   */
+  private synchronized void publish() {
+    Map<String, ClassInfo> previous = new HashMap<>();
+    for (Map.Entry<String, ClassInfo> change : changedClasses.entrySet()) {
+      if (classes.get(change.getKey()) != change.getValue()) previous.put(change.getKey(), change.getValue());
+    }
+    changedClasses.clear();
+    if (previous.isEmpty()) return;
+    Map<String, ClassInfo> current = Collections.unmodifiableMap(new HashMap<>(classes));
+    published = current;
+    for (StandingQuery query : queries)
+      query.update(current, previous);
+  }
+
+  /**
+   * Put back a class of the same name found in another file, if there is
+   * one.
+   */
+  private boolean restore(String className) {
+    for (List<ClassInfo> sourceClasses : sources.values()) {
+      for (ClassInfo classInfo : sourceClasses) {
+        if (classInfo.getClassName().equals(className)) {
+          classChanged(className, classes.put(className, classInfo));
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static class WatchedDirectory {
+    final Path path;
+    final File location;
+
+    WatchedDirectory(Path path, File location) {
+      this.path = path;
+      this.location = location;
+    }
+  }
+
+  /**
+   * Class files and archives to parse again, all at once.
+   */
+  private class Update {
+    final Map<File, List<Path>> classFiles = new LinkedHashMap<>();
+    final Map<Path, File> archives = new LinkedHashMap<>();
+
+    void addClassFile(File location, Path classFile) {
+      List<Path> locationClassFiles = classFiles.get(location);
+      if (locationClassFiles == null) {
+        locationClassFiles = new ArrayList<>();
+        classFiles.put(location, locationClassFiles);
+      }
+      locationClassFiles.add(classFile);
+    }
+
+    void apply() {
+      for (Map.Entry<File, List<Path>> entry : classFiles.entrySet()) {
+        Map<Path, ClassInfo> loaded = classLoader.loadClassFiles(entry.getValue(), entry.getKey());
+        for (Path classFile : entry.getValue()) {
+          ClassInfo classInfo = loaded.get(classFile);
+          replaceSource(classFile, classInfo == null ? Collections.<ClassInfo>emptyList() : Collections.singletonList(classInfo));
+        }
+      }
+      if (!archives.isEmpty()) loadArchives();
+    }
+
+    private void loadArchives() {
+      final Map<String, List<ClassInfo>> found = new HashMap<>();
+      List<File> existing = new ArrayList<>();
+      for (Map.Entry<Path, File> archive : archives.entrySet()) {
+        found.put(archive.getValue().getPath(), Collections.synchronizedList(new ArrayList<ClassInfo>()));
+        if (Files.isRegularFile(archive.getKey())) existing.add(archive.getValue());
+      }
+      classLoader.setClassListener(new ClassListener() {
+        @Override
+        public void found(ClassInfo classInfo) {
+          // Classes of nested archives are found at outer.war!/inner.jar
+          String location = classInfo.getClassLocation().getPath();
+          int nested = location.indexOf("!/");
+          List<ClassInfo> archiveClasses = found.get(nested < 0 ? location : location.substring(0, nested));
+          if (archiveClasses != null) archiveClasses.add(classInfo);
+        }
+      });
+      try {
+        if (!existing.isEmpty()) classLoader.loadClassesFrom(existing);
+      } catch (ClassFinderException ex) {
+        log.error("Unable to load classes from " + existing + ": ", ex);
+      }
+      for (Map.Entry<Path, File> archive : archives.entrySet())
+        replaceSource(archive.getKey(), new ArrayList<>(found.get(archive.getValue().getPath())));
+    }
+  }
+}
@@ -0,0 +1,213 @@
+package com.poolik.classfinder;
+
+import com.poolik.classfinder.info.ClassInfo;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * <p>The class hierarchy of a scan's classes in primitive arrays. Every
+ * class gets a dense id, looked up by name in an open-addressed table of
+ * ints rather than a map of boxed ones. Its super class is an id, and the
+ * interfaces it lists are a range of one shared id array. Each class's
+ * super classes and interfaces, however far above it, are worked out once,
+ * parents before children, and kept as sorted id arrays. Most classes add
+ * no interfaces of their own and share their super class's array.</p>
+ *
+ * <p>As with {@link ClassHierarchyResolver}, the hierarchy is only
+ * followed through found classes. Once built, a graph can be read by
+ * several threads at once.</p>
+ */
+final class HierarchyGraph {
+  private static final int[] NONE = new int[0];
+
+  private final String[] names;
+  private final ClassInfo[] classes;
+  // The id + 1 of the class whose name hashes to each slot, or 0
+  private final int[] slots;
+  private final int[] superClass;
+  private final int[] interfaceStart;
+  private final int[] interfaceIds;
+  private final int[][] allSuperClasses;
+  private final int[][] allInterfaces;
+
+  HierarchyGraph(Map<String, ClassInfo> foundClasses) {
+    int count = foundClasses.size();
+    names = new String[count];
+    classes = new ClassInfo[count];
+    int capacity = 2;
+    while (capacity < count * 2) capacity <<= 1;
+    slots = new int[capacity];
+    int added = 0;
+    for (ClassInfo classInfo : foundClasses.values()) {
+      names[added] = classInfo.getClassName();
+      classes[added] = classInfo;
+      slots[freeSlot(names[added])] = ++added;
+    }
+
+    superClass = new int[count];
+    interfaceStart = new int[count + 1];
+    int[] edges = new int[count];
+    int edgeCount = 0;
+    for (int id = 0; id < count; id++) {
+      superClass[id] = idOf(classes[id].getSuperClassName());
+      interfaceStart[id] = edgeCount;
+      String[] interfaces = classes[id].getInterfaces();
+      if (interfaces == null) continue;
+      for (String interfaceName : interfaces) {
+        int interfaceId = idOf(interfaceName);
+        if (interfaceId < 0) continue;
+        if (edgeCount == edges.length) edges = Arrays.copyOf(edges, edges.length * 2);
+        edges[edgeCount++] = interfaceId;
+      }
+    }
+    interfaceStart[count] = edgeCount;
+    interfaceIds = Arrays.copyOf(edges, edgeCount);
+
+    allSuperClasses = new int[count][];
+    allInterfaces = new int[count][];
+    for (int id : parentsFirst())
+      close(id);
+  }
+
+  /**
+   * @return the class's id, or -1 if it isn't one of the graph's classes
+   */
+  int idOf(ClassInfo classInfo) {
+    int id = idOf(classInfo.getClassName());
+    return id >= 0 && classes[id] == classInfo ? id : -1;
+  }
+
+  /**
+   * @return the id of the found class of the name, or -1
+   */
+  int idOf(String className) {
+    if (className == null) return -1;
+    int mask = slots.length - 1;
+    for (int slot = hash(className) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+      if (names[slots[slot] - 1].equals(className)) return slots[slot] - 1;
+    }
+    return -1;
+  }
+
+  /**
+   * @return an empty slot for the name, or the slot of the name if it is
+   * already there, so the later class takes it as with a map's put
+   */
+  private int freeSlot(String className) {
+    int mask = slots.length - 1;
+    int slot = hash(className) & mask;
+    while (slots[slot] != 0 && !names[slots[slot] - 1].equals(className))
+      slot = (slot + 1) & mask;
+    return slot;
+  }
+
+  private static int hash(String className) {
+    int hash = className.hashCode();
+    return hash ^ (hash >>> 16);
+  }
+
+  boolean isSubclassOf(int id, int superClassId) {
+    return Arrays.binarySearch(allSuperClasses[id], superClassId) >= 0;
+  }
+
+  boolean implementsInterface(int id, int interfaceId) {
+    return Arrays.binarySearch(allInterfaces[id], interfaceId) >= 0;
+  }
+
+  /**
+   * @return the ids of the classes in an order that puts every class after
+   * its super class and interfaces. Classes in a cycle, which no compiler
+   * writes, are ordered as if the edge closing it weren't there.
+   */
+  private int[] parentsFirst() {
+    int count = classes.length;
+    int[] order = new int[count];
+    int ordered = 0;
+    byte[] state = new byte[count];
+    int[] stack = new int[count];
+    int[] nextParent = new int[count];
+    for (int root = 0; root < count; root++) {
+      if (state[root] != 0) continue;
+      int depth = 0;
+      stack[depth++] = root;
+      state[root] = 1;
+      nextParent[root] = 0;
+      while (depth > 0) {
+        int id = stack[depth - 1];
+        int parent = parent(id, nextParent[id]++);
+        if (parent == -2) {
+          state[id] = 2;
+          order[ordered++] = id;
+          depth--;
+        } else if (parent >= 0 && state[parent] == 0) {
+          state[parent] = 1;
+          nextParent[parent] = 0;
+          stack[depth++] = parent;
+        }
+      }
+    }
+    return order;
+  }
+
+  /**
+   * @return the class's nth parent, the super class first, -1 for a
+   * parent that isn't there, -2 once there are no more
+   */
+  private int parent(int id, int n) {
+    if (n == 0) return superClass[id];
+    int edge = interfaceStart[id] + n - 1;
+    return edge < interfaceStart[id + 1] ? interfaceIds[edge] : -2;
+  }
+
+  private void close(int id) {
+    int superId = superClass[id];
+    // A parent not yet closed is one closing a cycle
+    boolean hasSuper = superId >= 0 && allSuperClasses[superId] != null;
+    allSuperClasses[id] = hasSuper ? with(allSuperClasses[superId], superId) : NONE;
+
+    int[] inherited = hasSuper ? allInterfaces[superId] : NONE;
+    int first = interfaceStart[id];
+    int last = interfaceStart[id + 1];
+    if (first == last) {
+      allInterfaces[id] = inherited;
+      return;
+    }
+    int size = inherited.length;
+    for (int edge = first; edge < last; edge++) {
+      int[] above = allInterfaces[interfaceIds[edge]];
+      size += 1 + (above == null ? 0 : above.length);
+    }
+    int[] all = Arrays.copyOf(inherited, size);
+    int filled = inherited.length;
+    for (int edge = first; edge < last; edge++) {
+      int interfaceId = interfaceIds[edge];
+      int[] above = allInterfaces[interfaceId];
+      if (above == null) continue;
+      all[filled++] = interfaceId;
+      System.arraycopy(above, 0, all, filled, above.length);
+      filled += above.length;
+    }
+    allInterfaces[id] = sortedUnique(all, filled);
+  }
+
+  private static int[] with(int[] sorted, int value) {
+    int position = Arrays.binarySearch(sorted, value);
+    if (position >= 0) return sorted;
+    position = -position - 1;
+    int[] result = new int[sorted.length + 1];
+    System.arraycopy(sorted, 0, result, 0, position);
+    result[position] = value;
+    System.arraycopy(sorted, position, result, position + 1, sorted.length - position);
+    return result;
+  }
+
+  private static int[] sortedUnique(int[] values, int length) {
+    Arrays.sort(values, 0, length);
+    int unique = 0;
+    for (int i = 0; i < length; i++) {
+      if (unique == 0 || values[i] != values[unique - 1]) values[unique++] = values[i];
+    }
+    return unique == values.length ? values : Arrays.copyOf(values, unique);
+  }
+}
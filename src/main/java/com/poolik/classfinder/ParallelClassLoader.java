@@ -1,132 +1,909 @@
 package com.poolik.classfinder;
 
+import com.poolik.classfinder.cache.CachedLocation;
+import com.poolik.classfinder.cache.ScanCache;
+import com.poolik.classfinder.cache.SharedScanCache;
+import com.poolik.classfinder.index.ClassIndex;
 import com.poolik.classfinder.info.ClassInfo;
-import com.poolik.classfinder.io.FileUtil;
 import com.poolik.classfinder.io.DirUtils;
+import com.poolik.classfinder.io.FileUtil;
+import com.poolik.classfinder.io.PathScope;
+import com.poolik.classfinder.io.ReadBuffer;
+import com.poolik.classfinder.io.visitor.ClassPathFileVisitor;
+import com.poolik.classfinder.io.zip.ArchiveBuffer;
+import com.poolik.classfinder.io.zip.ArchiveEntry;
+import com.poolik.classfinder.io.zip.ArchiveEntryReader;
+import com.poolik.classfinder.io.zip.ArchiveEntrySource;
+import com.poolik.classfinder.io.zip.CentralDirectory;
 import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassVisitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.zeroturnaround.zip.ZipEntryCallback;
 import org.zeroturnaround.zip.ZipUtil;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 
 public class ParallelClassLoader implements ClassLoader {
-  private static final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+  private static final ForkJoinPool defaultPool = new ForkJoinPool();
   private static final Logger log = LoggerFactory.getLogger(ParallelClassLoader.class);
+  private static final int CLASS_FILE_BATCH_SIZE = 64;
+  private static final int ARCHIVE_ENTRY_BATCH_SIZE = 256;
+  private final ParseDepth parseDepth;
+  private ScanMode scanMode = ScanMode.ASM;
+  private int walkParallelism = Runtime.getRuntime().availableProcessors();
+  private boolean followLinks = false;
+  private ArchiveBackend archiveBackend = ArchiveBackend.FILE_CHANNEL;
+  private boolean scanNestedArchives = false;
+  private Executor executor = defaultPool;
+  private ClassListener classListener;
+  private PathScope scope = PathScope.EVERYTHING;
+  private ScanCache cache;
+  private SharedScanCache sharedCache;
+  private AnnotationIndex annotationIndex;
+  private boolean useClassIndexes = true;
+
+  public ParallelClassLoader() {
+    this(ParseDepth.MEMBERS);
+  }
+
+  public ParallelClassLoader(ParseDepth parseDepth) {
+    this.parseDepth = parseDepth;
+  }
+
+  public ParallelClassLoader setScanMode(ScanMode scanMode) {
+    this.scanMode = scanMode;
+    return this;
+  }
+
+  /**
+   * Set how many directories may be walked at the same time. Directories
+   * found while the limit is reached are walked by the task that found
+   * them.
+   */
+  public ParallelClassLoader setWalkParallelism(int walkParallelism) {
+    if (walkParallelism < 1) throw new IllegalArgumentException("Walk parallelism must be at least 1, was " + walkParallelism);
+    this.walkParallelism = walkParallelism;
+    return this;
+  }
+
+  public ParallelClassLoader setFollowLinks(boolean followLinks) {
+    this.followLinks = followLinks;
+    return this;
+  }
+
+  public ParallelClassLoader setArchiveBackend(ArchiveBackend archiveBackend) {
+    this.archiveBackend = archiveBackend;
+    return this;
+  }
+
+  public ParallelClassLoader setScanNestedArchives(boolean scanNestedArchives) {
+    this.scanNestedArchives = scanNestedArchives;
+    return this;
+  }
+
+  /**
+   * Set what runs the scan's tasks. Defaults to a <tt>ForkJoinPool</tt>
+   * shared by all loaders, with a daemon worker per processor. The
+   * executor is never shut down by the loader. The thread calling
+   * {@link #loadClassesFrom} waits for the scan without running any of its
+   * tasks, so it must not be the only thread of <tt>executor</tt>.
+   */
+  public ParallelClassLoader setExecutor(Executor executor) {
+    this.executor = executor;
+    return this;
+  }
+
+  /**
+   * Set which directories, class files and archive entries are looked at.
+   * Everything left out is never read.
+   */
+  public ParallelClassLoader setScope(PathScope scope) {
+    this.scope = scope;
+    return this;
+  }
+
+  /**
+   * Reuse the classes cached from earlier scans that haven't changed since,
+   * and cache the ones parsed by this scan once it is over. Nothing is
+   * cached from a scan that fails or is cancelled.
+   *
+   * @param cache the cache, or null to parse every class
+   */
+  public ParallelClassLoader setCache(ScanCache cache) {
+    this.cache = cache;
+    return this;
+  }
+
+  /**
+   * Take the classes of archives from the shared cache while they are
+   * current there, and put the classes of the archives this scan parses
+   * there once it is over. Only scans looking at everything use it; nothing
+   * is shared from a scan that fails or is cancelled. Classes in
+   * directories are not shared.
+   *
+   * @param sharedCache the cache, or null to parse every archive
+   */
+  public ParallelClassLoader setSharedCache(SharedScanCache sharedCache) {
+    this.sharedCache = sharedCache;
+    return this;
+  }
+
+  /**
+   * Add every class found to the index as soon as it is found, wherever
+   * it was taken from. A class found in several places is added once for
+   * each.
+   *
+   * @param annotationIndex the index, or null
+   */
+  ParallelClassLoader setAnnotationIndex(AnnotationIndex annotationIndex) {
+    this.annotationIndex = annotationIndex;
+    return this;
+  }
+
+  /**
+   * Set whether the classes of an archive carrying a {@link ClassIndex}
+   * are taken from the index instead of its class files. An index holding
+   * less than the loader's parse depth is never used. Defaults to true.
+   */
+  public ParallelClassLoader setUseClassIndexes(boolean useClassIndexes) {
+    this.useClassIndexes = useClassIndexes;
+    return this;
+  }
+
+  /**
+   * Hand every class found over to <tt>classListener</tt> as soon as it is
+   * parsed, instead of collecting them. The scan's result is then left
+   * empty. A class found in several places is handed over once for each.
+   *
+   * @param classListener the listener, or null to collect found classes
+   */
+  public ParallelClassLoader setClassListener(ClassListener classListener) {
+    this.classListener = classListener;
+    return this;
+  }
 
   @Override
   public Map<String, ClassInfo> loadClassesFrom(Collection<File> placesToSearch) {
-    final Map<String, ClassInfo> foundClasses = new ConcurrentHashMap<>();
     try {
-      executor.invokeAll(getClassLoadJobs(placesToSearch, foundClasses));
-    } catch (InterruptedException e) {
-      log.error("Failed to load classes ", e);
+      return loadClassesAsync(placesToSearch, null).get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new ClassFinderException("Interrupted while finding classes", ex);
+    } catch (ExecutionException ex) {
+      throw new ClassFinderException("Unable to find classes", ex.getCause());
     }
-    return foundClasses;
   }
 
-  private Collection<Callable<Void>> getClassLoadJobs(Collection<File> placesToSearch, final Map<String, ClassInfo> foundClasses) {
-    Collection<Callable<Void>> classLoadJobs = new ArrayList<>();
-    for (final File file : placesToSearch) {
-      classLoadJobs.add(new Callable<Void>() {
+  /**
+   * Start a scan without waiting for it. A task is submitted for every
+   * location, in the order given, so with an executor that starts tasks in
+   * the order they are submitted earlier locations are scanned first.
+   * Every archive, directory and batch of class files found below a
+   * location becomes a task of its own. Cancelling the returned future
+   * stops the scan as soon as its running tasks notice.
+   *
+   * @param callback told the outcome on the thread that finishes the scan,
+   *                 or null
+   */
+  public Future<Map<String, ClassInfo>> loadClassesAsync(Collection<File> placesToSearch,
+                                                         Callback<? super Map<String, ClassInfo>> callback) {
+    Scan scan = new Scan(executor, classListener, callback, cache, annotationIndex, scope.isEverything());
+    if (scope.isEverything()) scan.shareWith(sharedCache, parseDepth, scanNestedArchives);
+    for (File file : placesToSearch) {
+      String name = file.getPath();
+      if (FileUtil.isArchive(name)) {
+        scan.submit(new ArchiveTask(file, scan));
+      } else {
+        log.info("Finding classes in " + name);
+        CachedLocation record = cache == null ? null : CachedLocation.forDirectory(file, cache.read(file));
+        scan.cached(record);
+        scan.directoriesWalking.incrementAndGet();
+        scan.submit(new DirectoryTask(file.toPath(), file, Collections.<Object>emptySet(), record, scan));
+      }
+    }
+    scan.locationsSubmitted();
+    return scan.result;
+  }
+
+  /**
+   * Parse single class files, in batches on the executor, and wait for
+   * them. Unlike a scan, nothing is walked, cached or told to the class
+   * listener. Class files that can't be read or parsed are left out.
+   *
+   * @param location where the classes are reported to be found
+   * @return the classes, by the class file they were parsed from
+   */
+  public Map<Path, ClassInfo> loadClassFiles(List<Path> classFiles, final File location) {
+    final Map<Path, ClassInfo> found = new ConcurrentHashMap<>();
+    final CountDownLatch batchesLeft = new CountDownLatch((classFiles.size() + CLASS_FILE_BATCH_SIZE - 1) / CLASS_FILE_BATCH_SIZE);
+    for (int start = 0; start < classFiles.size(); start += CLASS_FILE_BATCH_SIZE) {
+      final List<Path> batch = classFiles.subList(start, Math.min(start + CLASS_FILE_BATCH_SIZE, classFiles.size()));
+      Runnable task = new Runnable() {
         @Override
-        public Void call() throws Exception {
-          loadClassesIn(file, foundClasses);
-          return null;
+        public void run() {
+          try {
+            ReadBuffer buffer = ReadBuffer.forCurrentThread();
+            for (Path classFile : batch) {
+              log.trace("Loading " + classFile);
+              try {
+                found.put(classFile, loadClassData(buffer.read(classFile, Files.size(classFile)), location));
+              } catch (IOException | ClassFinderException ex) {
+                log.error("Can't open '" + classFile + "': ", ex);
+              }
+            }
+          } finally {
+            batchesLeft.countDown();
+          }
+        }
+      };
+      try {
+        executor.execute(task);
+      } catch (RejectedExecutionException ex) {
+        task.run();
+      }
+    }
+    try {
+      batchesLeft.await();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new ClassFinderException("Interrupted while loading class files", ex);
+    }
+    return found;
+  }
+
+  /**
+   * State shared by all tasks of one scan. Tasks submit the work they find
+   * through {@link #submit} rather than waiting for it, and the scan is
+   * over once no submitted task is left running or queued, and every
+   * location has been submitted. The thread that finishes last writes
+   * what changed to the cache and completes the scan's result.
+   */
+  private static class Scan {
+    final AtomicInteger directoriesWalking = new AtomicInteger();
+    final ScanFuture<Map<String, ClassInfo>> result;
+    private final Map<String, ClassInfo> foundClasses = new ConcurrentHashMap<>();
+    private final Executor executor;
+    private final ClassListener classListener;
+    private final ScanCache cache;
+    private final AnnotationIndex annotationIndex;
+    private final boolean walksEverything;
+    private final Queue<CachedLocation> cacheRecords = new ConcurrentLinkedQueue<>();
+    private final Map<String, SharedArchive> sharedArchives = new ConcurrentHashMap<>();
+    private SharedScanCache sharedCache;
+    private ParseDepth sharedParseDepth;
+    private boolean sharedNestedArchives;
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private volatile boolean cancelled;
+    private volatile Throwable failure;
+
+    Scan(Executor executor, ClassListener classListener, Callback<? super Map<String, ClassInfo>> callback,
+         ScanCache cache, AnnotationIndex annotationIndex, boolean walksEverything) {
+      this.executor = executor;
+      this.classListener = classListener;
+      this.cache = cache;
+      this.annotationIndex = annotationIndex;
+      this.walksEverything = walksEverything;
+      this.result = new ScanFuture<>(callback, new Runnable() {
+        @Override
+        public void run() {
+          cancelled = true;
         }
       });
     }
-    return classLoadJobs;
+
+    void submit(final Runnable task) {
+      if (cancelled) return;
+      pending.incrementAndGet();
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              if (!cancelled) task.run();
+            } catch (Throwable ex) {
+              failure = ex;
+            } finally {
+              taskDone();
+            }
+          }
+        });
+      } catch (RejectedExecutionException ex) {
+        failure = ex;
+        taskDone();
+      }
+    }
+
+    /**
+     * Count the submitting thread's own share off on the executor. If every
+     * task were done by then, finishing the scan on the submitting thread
+     * would run the callback there, and a callback handing classes to a
+     * full {@link ClassStream} would wait for the very thread meant to read
+     * them.
+     */
+    void locationsSubmitted() {
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            taskDone();
+          }
+        });
+      } catch (RejectedExecutionException ex) {
+        taskDone();
+      }
+    }
+
+    boolean isCancelled() {
+      return cancelled;
+    }
+
+    /**
+     * Have the record written to the cache when the scan is over, if it
+     * changed.
+     */
+    void cached(CachedLocation record) {
+      if (record != null) cacheRecords.add(record);
+    }
+
+    void shareWith(SharedScanCache sharedCache, ParseDepth parseDepth, boolean nestedArchives) {
+      this.sharedCache = sharedCache;
+      this.sharedParseDepth = parseDepth;
+      this.sharedNestedArchives = nestedArchives;
+    }
+
+    /**
+     * @return the archive's classes, if current in the shared cache
+     */
+    List<ClassInfo> shared(File archive, long size, long lastModified) {
+      return sharedCache == null ? null : sharedCache.get(archive, size, lastModified, sharedParseDepth, sharedNestedArchives);
+    }
+
+    /**
+     * Collect the classes found in the archive, to be put in the shared
+     * cache when the scan is over.
+     */
+    void share(File archive, long size, long lastModified) {
+      if (sharedCache != null) sharedArchives.put(archive.getPath(), new SharedArchive(archive, size, lastModified));
+    }
+
+    void found(ClassInfo classInfo) {
+      if (!sharedArchives.isEmpty()) {
+        // Classes of nested archives are found at outer.war!/inner.jar
+        String location = classInfo.getClassLocation().getPath();
+        int nested = location.indexOf("!/");
+        SharedArchive archive = sharedArchives.get(nested < 0 ? location : location.substring(0, nested));
+        if (archive != null) archive.classes.add(classInfo);
+      }
+      if (annotationIndex != null) annotationIndex.add(classInfo);
+      if (classListener != null) classListener.found(classInfo);
+      else foundClasses.put(classInfo.getClassName(), classInfo);
+    }
+
+    private void taskDone() {
+      if (pending.decrementAndGet() != 0) return;
+      if (failure == null && !cancelled) {
+        writeCache();
+        for (SharedArchive archive : sharedArchives.values())
+          sharedCache.put(archive.archive, archive.size, archive.lastModified, sharedParseDepth, sharedNestedArchives,
+              new ArrayList<>(archive.classes));
+      }
+      if (failure != null) result.fail(failure);
+      else result.complete(foundClasses);
+    }
+
+    private void writeCache() {
+      for (CachedLocation record : cacheRecords) {
+        // Class files left out of the walk may still be there
+        if (!record.isArchive() && walksEverything) record.dropUnvisited();
+        if (!record.isChanged()) continue;
+        try {
+          cache.write(record);
+        } catch (IOException ex) {
+          log.warn("Can't write cache of '" + record.getLocation().getPath() + "': " + ex);
+        }
+      }
+    }
   }
 
-  private void loadClassesIn(File file, Map<String, ClassInfo> foundClasses) {
-    String name = file.getPath();
-    log.info("Finding classes in " + name);
-    if (FileUtil.isJar(name) || FileUtil.isZip(name))
-      processZip(name, foundClasses);
-    else
-      processDirectory(file, foundClasses);
+  private static class SharedArchive {
+    final File archive;
+    final long size;
+    final long lastModified;
+    final Queue<ClassInfo> classes = new ConcurrentLinkedQueue<>();
+
+    SharedArchive(File archive, long size, long lastModified) {
+      this.archive = archive;
+      this.size = size;
+      this.lastModified = lastModified;
+    }
   }
 
+  /**
+   * Reads an archive's central directory and splits its class entries into
+   * ranges that are inflated and parsed by separate tasks. A memory mapped
+   * archive is mapped once here and shared by all of them. An archive
+   * whose size and modification time match its cache record isn't opened
+   * here at all; its entries are taken from the record, and the few that
+   * aren't cached are read through file channels. Nothing is read if the
+   * archive's classes are current in the shared cache.
+   */
+  private class ArchiveTask implements Runnable {
+    private final File archive;
+    private final Scan scan;
 
-  private void processZip(final String zipName,
-                          final Map<String, ClassInfo> foundClasses) {
-    final File zip = new File(zipName);
-    ZipUtil.iterate(zip, new ZipEntryCallback() {
-      public void process(InputStream in, ZipEntry zipEntry) throws IOException {
-        if ((!zipEntry.isDirectory()) && (zipEntry.getName().endsWith(".class"))) {
-          try {
-            log.trace("Loading " + zipName + "(" + zipEntry.getName() + ")");
-            loadClassData(in, new ClassInfoClassVisitor(foundClasses, zip));
-          } catch (ClassFinderException ex) {
-            log.error("Can't open \"" + zipEntry.getName() + "\" in file \"" + zipName + "\": ", ex);
-          }
+    ArchiveTask(File archive, Scan scan) {
+      this.archive = archive;
+      this.scan = scan;
+    }
+
+    @Override
+    public void run() {
+      log.info("Finding classes in " + archive.getPath());
+      CachedLocation previous = null;
+      long size = 0, lastModified = 0;
+      if (cache != null || sharedCache != null) {
+        size = archive.length();
+        lastModified = archive.lastModified();
+      }
+      List<ClassInfo> shared = scan.shared(archive, size, lastModified);
+      if (shared != null) {
+        for (ClassInfo classInfo : shared)
+          scan.found(classInfo);
+        return;
+      }
+      scan.share(archive, size, lastModified);
+      if (cache != null) {
+        previous = cache.read(archive);
+        if (previous != null && previous.isCurrent(size, lastModified)) {
+          scan.cached(previous);
+          submitEntryTasks(archive, archive, null, previous.getEntries(), previous, scan);
+          return;
         }
       }
-    });
+      ArchiveBuffer mapped = archiveBackend == ArchiveBackend.MEMORY_MAPPED ? map() : null;
+      List<ArchiveEntry> entries;
+      if (mapped != null) {
+        entries = mapped.getEntries();
+      } else {
+        try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+          entries = CentralDirectory.read(channel);
+        } catch (IOException ex) {
+          log.debug("Can't read central directory of '" + archive.getPath() + "', reading it sequentially: " + ex);
+          processZipSequentially();
+          return;
+        }
+      }
+      CachedLocation record = cache == null ? null : CachedLocation.forArchive(archive, size, lastModified, entries, previous);
+      scan.cached(record);
+      submitEntryTasks(archive, archive, mapped, entries, record, scan);
+    }
+
+    private ArchiveBuffer map() {
+      try {
+        return ArchiveBuffer.map(archive.toPath());
+      } catch (IOException ex) {
+        log.debug("Can't map '" + archive.getPath() + "', reading it through a file channel: " + ex);
+        return null;
+      }
+    }
+
+    private void processZipSequentially() {
+      try {
+        processZip(archive, scan);
+      } catch (RuntimeException ex) {
+        log.error("Can't read archive '" + archive.getPath() + "': ", ex);
+      }
+    }
   }
 
-  private void processDirectory(File dir, Map<String, ClassInfo> foundClasses) {
-    loadAllClassFilesInDir(dir, foundClasses);
-    loadAllJarFilesInDir(dir, foundClasses);
-    loadAllZipFilesInDir(dir, foundClasses);
+  /**
+   * Splits an archive's class entries into ranges of their own, and, when
+   * scanning nested archives, makes a task of every archive stored in it.
+   * Classes found in the cache record are taken from there instead, and
+   * all classes are taken from the archive's class index if it has one.
+   *
+   * @param archive  the file on disk the entries are in
+   * @param location where the entries are, which is below <tt>archive</tt>
+   *                 for nested archives
+   * @param buffer   the archive, or null to read it through a file channel
+   * @param record   the archive's cache record, or null
+   */
+  private void submitEntryTasks(File archive, File location, ArchiveBuffer buffer,
+                                List<ArchiveEntry> entries, CachedLocation record, Scan scan) {
+    ClassIndex classIndex = useClassIndexes ? readClassIndex(archive, location, buffer, entries) : null;
+    List<ArchiveEntry> classEntries = new ArrayList<>();
+    for (ArchiveEntry entry : entries) {
+      if (entry.isDirectory()) continue;
+      if (entry.getName().endsWith(".class")) {
+        if (classIndex != null || !scope.includesClassEntry(entry.getName())) continue;
+        ClassInfo cached = record == null ? null : record.get(entry.getName(), entry.getCrc(), entry.getSize(), parseDepth);
+        if (cached != null) scan.found(cached);
+        else classEntries.add(entry);
+      } else if (scanNestedArchives && FileUtil.isArchive(entry.getName()) && scope.includesArchive(entry.getName()))
+        scan.submit(new NestedArchiveTask(archive, location, buffer, entry, scan));
+    }
+    if (classIndex != null) {
+      for (ClassInfo classInfo : classIndex.getClasses()) {
+        if (scope.includesClassEntry(classInfo.getClassName().replace('.', '/') + ".class")) scan.found(classInfo);
+      }
+    }
+    for (int from = 0; from < classEntries.size(); from += ARCHIVE_ENTRY_BATCH_SIZE) {
+      int to = Math.min(from + ARCHIVE_ENTRY_BATCH_SIZE, classEntries.size());
+      scan.submit(new ArchiveEntriesTask(archive, location, buffer, classEntries.subList(from, to), record, scan));
+    }
   }
 
-  private void loadAllZipFilesInDir(File dir, Map<String, ClassInfo> foundClasses) {
-    loadAllFilesWithSuffixInDir(dir, ".zip", foundClasses);
+  /**
+   * @return the archive's class index, or null if it has none deep enough
+   * to use
+   */
+  private ClassIndex readClassIndex(File archive, File location, ArchiveBuffer buffer, List<ArchiveEntry> entries) {
+    // Entries of a nested archive can only be read from its own buffer
+    if (buffer == null && !location.equals(archive)) return null;
+    for (ArchiveEntry entry : entries) {
+      if (!entry.getName().equals(ClassIndex.RESOURCE_NAME)) continue;
+      try {
+        ClassIndex classIndex = new ClassIndex(readOwned(archive, buffer, entry), location);
+        if (classIndex.getParseDepth().includes(parseDepth)) return classIndex;
+        log.debug("Class index of '" + location.getPath() + "' holds too little, scanning its classes");
+      } catch (IOException ex) {
+        log.warn("Can't read class index of '" + location.getPath() + "', scanning its classes: " + ex);
+      }
+      return null;
+    }
+    return null;
   }
 
-  private void loadAllJarFilesInDir(File dir, Map<String, ClassInfo> foundClasses) {
-    loadAllFilesWithSuffixInDir(dir, ".jar", foundClasses);
+  /**
+   * Read an entry into a buffer that isn't reused by later reads.
+   */
+  private ByteBuffer readOwned(File archive, ArchiveBuffer buffer, ArchiveEntry entry) throws IOException {
+    ByteBuffer data;
+    if (buffer != null) {
+      data = buffer.read(entry);
+      // Mapped entries are slices of the archive and stay valid
+      if (data.isDirect()) return data;
+    } else {
+      try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+        data = new ArchiveEntryReader(channel).read(entry);
+      }
+    }
+    ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+    copy.put(data);
+    copy.flip();
+    return copy;
+  }
+
+  /**
+   * Opens an archive stored in another one, such as a jar in a war file,
+   * without extracting it, and scans it like any other archive. Its classes
+   * are found at <tt>outer.war!/WEB-INF/lib/inner.jar</tt>. It is cached
+   * by the CRC and size of its entry, and not read at all if everything
+   * looked at in it is cached.
+   */
+  private class NestedArchiveTask implements Runnable {
+    private final File archive;
+    private final File outerLocation;
+    private final ArchiveBuffer outer;
+    private final ArchiveEntry entry;
+    private final Scan scan;
+
+    NestedArchiveTask(File archive, File outerLocation, ArchiveBuffer outer, ArchiveEntry entry, Scan scan) {
+      this.archive = archive;
+      this.outerLocation = outerLocation;
+      this.outer = outer;
+      this.entry = entry;
+      this.scan = scan;
+    }
+
+    @Override
+    public void run() {
+      File location = new File(outerLocation.getPath() + "!/" + entry.getName());
+      log.info("Finding classes in " + location.getPath());
+      CachedLocation previous = cache == null ? null : cache.read(location);
+      if (previous != null && previous.isCurrent(entry.getSize(), entry.getCrc()) && isFullyCached(previous)) {
+        scan.cached(previous);
+        submitEntryTasks(archive, location, null, previous.getEntries(), previous, scan);
+        return;
+      }
+      ArchiveBuffer nested;
+      try {
+        nested = outer != null ? outer.readArchive(entry) : readFromDisk();
+      } catch (IOException ex) {
+        log.error("Can't read archive '" + location.getPath() + "': ", ex);
+        return;
+      }
+      CachedLocation record = cache == null ? null
+          : CachedLocation.forArchive(location, entry.getSize(), entry.getCrc(), nested.getEntries(), previous);
+      scan.cached(record);
+      submitEntryTasks(archive, location, nested, nested.getEntries(), record, scan);
+    }
+
+    /**
+     * Entries of a nested archive can't be read without the archive itself,
+     * so it is skipped only if there is nothing left to read from it.
+     */
+    private boolean isFullyCached(CachedLocation record) {
+      for (ArchiveEntry nestedEntry : record.getEntries()) {
+        String name = nestedEntry.getName();
+        if (nestedEntry.isDirectory()) continue;
+        if (name.endsWith(".class")) {
+          if (scope.includesClassEntry(name) && !record.contains(name, nestedEntry.getCrc(), nestedEntry.getSize(), parseDepth))
+            return false;
+        } else if (scanNestedArchives && FileUtil.isArchive(name) && scope.includesArchive(name)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private ArchiveBuffer readFromDisk() throws IOException {
+      try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+        return new ArchiveEntryReader(channel).readArchive(entry);
+      }
+    }
+  }
+
+  /**
+   * Inflates and parses a range of an archive's entries, either from the
+   * archive's buffer or through a file handle of its own.
+   */
+  private class ArchiveEntriesTask implements Runnable {
+    private final File archive;
+    private final File location;
+    private final ArchiveBuffer buffer;
+    private final List<ArchiveEntry> entries;
+    private final CachedLocation record;
+    private final Scan scan;
+
+    ArchiveEntriesTask(File archive, File location, ArchiveBuffer buffer, List<ArchiveEntry> entries,
+                       CachedLocation record, Scan scan) {
+      this.archive = archive;
+      this.location = location;
+      this.buffer = buffer;
+      this.entries = entries;
+      this.record = record;
+      this.scan = scan;
+    }
+
+    @Override
+    public void run() {
+      if (buffer != null) {
+        loadEntries(buffer);
+        return;
+      }
+      try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+        loadEntries(new ArchiveEntryReader(channel));
+      } catch (IOException ex) {
+        log.error("Can't read archive '" + archive.getPath() + "': ", ex);
+      }
+    }
+
+    private void loadEntries(ArchiveEntrySource source) {
+      for (ArchiveEntry entry : entries) {
+        if (scan.isCancelled()) return;
+        log.trace("Loading " + location.getPath() + "(" + entry.getName() + ")");
+        try {
+          ClassInfo classInfo = loadClassData(source.read(entry), location);
+          if (record != null) record.put(entry.getName(), entry.getCrc(), entry.getSize(), parseDepth, classInfo);
+          scan.found(classInfo);
+        } catch (IOException | ClassFinderException ex) {
+          log.error("Can't open \"" + entry.getName() + "\" in file \"" + location.getPath() + "\": ", ex);
+        }
+      }
+    }
   }
 
-  private void loadAllFilesWithSuffixInDir(File dir, String suffix, Map<String, ClassInfo> foundClasses) {
-    for (File file : filterFilesBySuffix(dir, suffix)) {
-      loadClassesIn(file, foundClasses);
+  /**
+   * Walks a directory, submitting work as it is found: a task for every
+   * archive, one for every full batch of class files, and one for every
+   * subdirectory while fewer than <tt>walkParallelism</tt> directories are
+   * being walked. Other subdirectories are walked right here. Class files
+   * whose size and modification time match the cache record are taken
+   * from there without being read.
+   */
+  private class DirectoryTask implements Runnable {
+    private final Path dir;
+    private final File location;
+    private final Set<Object> ancestors;
+    private final CachedLocation record;
+    private final Scan scan;
+    private List<Path> classFiles = new ArrayList<>();
+    private long[] classFileSizes = new long[CLASS_FILE_BATCH_SIZE];
+    private long[] classFileTimes = new long[CLASS_FILE_BATCH_SIZE];
+
+    DirectoryTask(Path dir, File location, Set<Object> ancestors, CachedLocation record, Scan scan) {
+      this.dir = dir;
+      this.location = location;
+      this.ancestors = ancestors;
+      this.record = record;
+      this.scan = scan;
+    }
+
+    @Override
+    public void run() {
+      try {
+        DirUtils.walk(dir, new ClassPathFileVisitor(dir, ancestors) {
+          @Override
+          protected void visitClassFile(Path file, BasicFileAttributes attrs) {
+            String path = scope.isEverything() && record == null ? null : relativePath(location, file);
+            if (!scope.isEverything() && !scope.includesClassFile(path)) return;
+            long lastModified = attrs.lastModifiedTime().toMillis();
+            if (record != null) {
+              ClassInfo cached = record.get(path, attrs.size(), lastModified, parseDepth);
+              if (cached != null) {
+                scan.found(cached);
+                return;
+              }
+            }
+            classFileSizes[classFiles.size()] = attrs.size();
+            classFileTimes[classFiles.size()] = lastModified;
+            classFiles.add(file);
+            if (classFiles.size() == CLASS_FILE_BATCH_SIZE) submitClassFiles();
+          }
+
+          @Override
+          protected void visitArchive(Path file, BasicFileAttributes attrs) {
+            if (!scope.isEverything() && !scope.includesArchive(relativePath(location, file))) return;
+            scan.submit(new ArchiveTask(file.toFile(), scan));
+          }
+
+          @Override
+          protected FileVisitResult visitDirectory(Path subDir, BasicFileAttributes attrs) {
+            if (scan.isCancelled()) return FileVisitResult.TERMINATE;
+            if (!scope.isEverything() && !scope.includesDirectory(relativePath(location, subDir))) return FileVisitResult.SKIP_SUBTREE;
+            if (!reserveWalker()) return FileVisitResult.CONTINUE;
+            scan.submit(new DirectoryTask(subDir, location, getAncestors(), record, scan));
+            return FileVisitResult.SKIP_SUBTREE;
+          }
+        }, followLinks);
+      } catch (IOException ex) {
+        log.error("Failed to walk directory '" + dir + "' ", ex);
+      } finally {
+        scan.directoriesWalking.decrementAndGet();
+      }
+      if (!classFiles.isEmpty()) submitClassFiles();
+    }
+
+    private boolean reserveWalker() {
+      int walking;
+      do {
+        walking = scan.directoriesWalking.get();
+        if (walking >= walkParallelism) return false;
+      } while (!scan.directoriesWalking.compareAndSet(walking, walking + 1));
+      return true;
+    }
+
+    private void submitClassFiles() {
+      scan.submit(new ClassFilesTask(classFiles, classFileSizes, classFileTimes, location, record, scan));
+      classFiles = new ArrayList<>();
+      classFileSizes = new long[CLASS_FILE_BATCH_SIZE];
+      classFileTimes = new long[CLASS_FILE_BATCH_SIZE];
     }
   }
 
-  private void loadAllClassFilesInDir(File dir, Map<String, ClassInfo> foundClasses) {
-    for (File classFile : filterFilesBySuffix(dir, ".class")) {
-      String path = classFile.getPath();
-      log.trace("Loading " + classFile.getPath());
-      try (InputStream is = new FileInputStream(classFile)) {
-        loadClassData(is, new ClassInfoClassVisitor(foundClasses, dir));
-      } catch (IOException | ClassFinderException ex) {
-        log.error("Can't open '" + path + "': ", ex);
+  /**
+   * Reads and parses a batch of class files, reading each one into this
+   * thread's {@link ReadBuffer} sized from what the walk found.
+   */
+  private class ClassFilesTask implements Runnable {
+    private final List<Path> classFiles;
+    private final long[] sizes;
+    private final long[] lastModifiedTimes;
+    private final File location;
+    private final CachedLocation record;
+    private final Scan scan;
+
+    ClassFilesTask(List<Path> classFiles, long[] sizes, long[] lastModifiedTimes, File location,
+                   CachedLocation record, Scan scan) {
+      this.classFiles = classFiles;
+      this.sizes = sizes;
+      this.lastModifiedTimes = lastModifiedTimes;
+      this.location = location;
+      this.record = record;
+      this.scan = scan;
+    }
+
+    @Override
+    public void run() {
+      ReadBuffer buffer = ReadBuffer.forCurrentThread();
+      for (int i = 0; i < classFiles.size(); i++) {
+        if (scan.isCancelled()) return;
+        Path classFile = classFiles.get(i);
+        log.trace("Loading " + classFile);
+        try {
+          ClassInfo classInfo = loadClassData(buffer.read(classFile, sizes[i]), location);
+          if (record != null)
+            record.put(relativePath(location, classFile), sizes[i], lastModifiedTimes[i], parseDepth, classInfo);
+          scan.found(classInfo);
+        } catch (IOException | ClassFinderException ex) {
+          log.error("Can't open '" + classFile + "': ", ex);
+        }
       }
     }
   }
 
-  private Collection<File> filterFilesBySuffix(File dir, String suffix) {
-    try {
-      return DirUtils.findWithSuffix(dir.toPath(), suffix);
-    } catch (IOException e) {
-      log.error("Failed to load files with suffix '" + suffix +"' ", e);
-      return new ArrayList<>();
+  /**
+   * @return the path of a file below a location, with <tt>/</tt> between
+   * names
+   */
+  static String relativePath(File location, Path path) {
+    StringBuilder relativePath = new StringBuilder();
+    for (Path name : location.toPath().relativize(path)) {
+      if (relativePath.length() > 0) relativePath.append('/');
+      relativePath.append(name);
     }
+    return relativePath.toString();
+  }
+
+  private void processZip(final File zip, final Scan scan) {
+    final String zipName = zip.getPath();
+    ZipUtil.iterate(zip, new ZipEntryCallback() {
+      public void process(InputStream in, ZipEntry zipEntry) throws IOException {
+        if ((!zipEntry.isDirectory()) && (zipEntry.getName().endsWith(".class")) && scope.includesClassEntry(zipEntry.getName())) {
+          try {
+            log.trace("Loading " + zipName + "(" + zipEntry.getName() + ")");
+            scan.found(loadClassData(ByteBuffer.wrap(FileUtil.readFully(in)), zip));
+          } catch (ClassFinderException ex) {
+            log.error("Can't open \"" + zipEntry.getName() + "\" in file \"" + zipName + "\": ", ex);
+          }
+        }
+      }
+    });
   }
 
-  private void loadClassData(InputStream is, ClassVisitor classVisitor)
-      throws ClassFinderException {
+  /**
+   * Parse the class file between the buffer's position and limit.
+   */
+  private ClassInfo loadClassData(ByteBuffer classData, File location) throws ClassFinderException {
     try {
-      ClassReader cr = new ClassReader(is);
-      cr.accept(classVisitor, ClassInfo.ASM_CR_ACCEPT_CRITERIA);
+      if (parseDepth == ParseDepth.HEADER && scanMode == ScanMode.HEADER_READER)
+        return ClassHeaderReader.read(classData, location);
+      ClassReader cr = classReaderFor(classData);
+      if (parseDepth == ParseDepth.HEADER) return readHeader(cr, location);
+      ClassInfoClassVisitor visitor = new ClassInfoClassVisitor(location, parseDepth);
+      cr.accept(visitor, parseDepth.getAsmFlags());
+      return visitor.getClassInfo();
     } catch (Exception ex) {
-      throw new ClassFinderException("Unable to load class from open input stream", ex);
+      throw new ClassFinderException("Unable to load class data", ex);
     }
   }
+
+  private ClassReader classReaderFor(ByteBuffer classData) {
+    if (classData.hasArray())
+      return new ClassReader(classData.array(), classData.arrayOffset() + classData.position(), classData.remaining());
+    // ASM can only read from an array, so mapped class files are copied
+    ByteBuffer copy = ReadBuffer.forCurrentThread().copy(classData);
+    return new ClassReader(copy.array(), copy.arrayOffset() + copy.position(), copy.remaining());
+  }
+
+  private ClassInfo readHeader(ClassReader cr, File location) {
+    return new ClassInfo(cr.getClassName(), cr.getSuperName(), cr.getInterfaces(), cr.getAccess(), location);
+  }
 }
\ No newline at end of file
@@ -0,0 +1,48 @@
+package com.poolik.classfinder;
+
+import org.objectweb.asm.ClassReader;
+
+/**
+ * <p>How much of each class file a scan has to decode. The levels are
+ * ordered, every level includes everything recorded by the ones before
+ * it.</p>
+ *
+ * <p>{@link com.poolik.classfinder.info.ClassInfo} records nothing from
+ * method bodies, so method code, debug tables and stack map frames are
+ * skipped at every level.</p>
+ *
+ * @see ClassFinder#setParseDepth
+ * @see com.poolik.classfinder.filter.FilterAnalyzer#requiredParseDepth
+ */
+public enum ParseDepth {
+  /**
+   * Class name, modifiers, super class and directly implemented
+   * interfaces. The class file is not visited at all.
+   */
+  HEADER,
+  /**
+   * The header plus class level annotations.
+   */
+  ANNOTATIONS,
+  /**
+   * The header, annotations, fields and methods.
+   */
+  MEMBERS;
+
+  private static final int SKIP_ALL_CODE = ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+
+  /**
+   * @return the flags to pass to <tt>ClassReader.accept()</tt>
+   */
+  public int getAsmFlags() {
+    return SKIP_ALL_CODE;
+  }
+
+  public boolean includes(ParseDepth other) {
+    return compareTo(other) >= 0;
+  }
+
+  public static ParseDepth deepest(ParseDepth first, ParseDepth second) {
+    return first.includes(second) ? first : second;
+  }
+}
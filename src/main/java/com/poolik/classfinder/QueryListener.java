@@ -0,0 +1,28 @@
+package com.poolik.classfinder;
+
+import com.poolik.classfinder.info.ClassInfo;
+
+/**
+ * Told how the classes passing a {@link StandingQuery}'s filter change.
+ * Calls for one query come one at a time, from whichever thread found the
+ * change.
+ *
+ * @see ClassFinder#addQuery
+ */
+public interface QueryListener {
+  /**
+   * A class passes the filter that didn't before, or wasn't there.
+   */
+  public void added(ClassInfo classInfo);
+
+  /**
+   * A class that passed the filter no longer does, or is gone.
+   */
+  public void removed(ClassInfo classInfo);
+
+  /**
+   * A class passing the filter was parsed again and is not the same as
+   * before, but still passes.
+   */
+  public void changed(ClassInfo previous, ClassInfo current);
+}
@@ -0,0 +1,72 @@
+package com.poolik.classfinder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The result of an asynchronous scan, completed by whichever thread
+ * finishes the scan rather than by running it itself.
+ */
+class ScanFuture<V> extends FutureTask<V> {
+  private static final Logger log = LoggerFactory.getLogger(ScanFuture.class);
+  private static final Runnable NOTHING = new Runnable() {
+    @Override
+    public void run() {
+    }
+  };
+
+  private final Callback<? super V> callback;
+  private final Runnable onCancel;
+
+  /**
+   * @param callback told the outcome, or null
+   * @param onCancel run if the future is cancelled before it completes, to
+   *                 stop the work it waits for
+   */
+  ScanFuture(Callback<? super V> callback, Runnable onCancel) {
+    super(NOTHING, null);
+    this.callback = callback;
+    this.onCancel = onCancel;
+  }
+
+  void complete(V result) {
+    set(result);
+  }
+
+  void fail(Throwable failure) {
+    setException(failure);
+  }
+
+  @Override
+  public void run() {
+    throw new UnsupportedOperationException("A scan future is completed by its scan");
+  }
+
+  @Override
+  protected void done() {
+    if (isCancelled()) onCancel.run();
+    if (callback == null) return;
+    try {
+      if (isCancelled()) {
+        callback.onFailure(new CancellationException());
+        return;
+      }
+      V result;
+      try {
+        result = get();
+      } catch (ExecutionException ex) {
+        callback.onFailure(ex.getCause());
+        return;
+      }
+      callback.onSuccess(result);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException ex) {
+      log.error("Callback failed: ", ex);
+    }
+  }
+}
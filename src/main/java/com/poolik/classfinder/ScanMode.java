@@ -0,0 +1,19 @@
+package com.poolik.classfinder;
+
+/**
+ * How class files are decoded.
+ *
+ * @see ClassFinder#setScanMode
+ */
+public enum ScanMode {
+  /**
+   * Decode every class file with ASM.
+   */
+  ASM,
+  /**
+   * Decode scans at {@link ParseDepth#HEADER} with a hand written reader
+   * that stops after the interfaces table, without building an ASM
+   * <tt>ClassReader</tt>. Deeper scans still use ASM.
+   */
+  HEADER_READER
+}
@@ -0,0 +1,190 @@
+package com.poolik.classfinder;
+
+import com.poolik.classfinder.filter.ClassFilter;
+import com.poolik.classfinder.filter.FilterAnalyzer;
+import com.poolik.classfinder.info.ClassInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * <p>A filter kept applied to the classes of a {@link ClassFinder} as they
+ * change, telling its {@link QueryListener} which classes start or stop
+ * passing it, and which passing classes changed.</p>
+ *
+ * <p>Only the classes that changed are judged again, together with the
+ * classes below them in the class hierarchy if the filter looks at it, as
+ * {@link com.poolik.classfinder.filter.Subclass} does. Classes are
+ * compared by what was parsed of them, so a class file that was rewritten
+ * without changing is not reported.</p>
+ *
+ * @see ClassFinder#addQuery
+ */
+public class StandingQuery implements Closeable {
+  private static final Logger log = LoggerFactory.getLogger(StandingQuery.class);
+
+  private final ClassFilter filter;
+  private final QueryListener listener;
+  private final ClassFinder classFinder;
+  private final boolean needsHierarchy;
+  private final Map<String, ClassInfo> passing = new HashMap<>();
+  private final Map<String, Set<String>> subtypes = new HashMap<>();
+  private boolean started;
+  private volatile boolean closed;
+
+  StandingQuery(ClassFilter filter, QueryListener listener, ClassFinder classFinder) {
+    this.filter = filter;
+    this.listener = listener;
+    this.classFinder = classFinder;
+    this.needsHierarchy = FilterAnalyzer.needsHierarchy(filter);
+  }
+
+  public ClassFilter getFilter() {
+    return filter;
+  }
+
+  /**
+   * @return the classes passing the filter as of the last change the query
+   * was told of
+   */
+  public synchronized Collection<ClassInfo> getClasses() {
+    return new ArrayList<>(passing.values());
+  }
+
+  /**
+   * Stop telling the listener of changes.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    classFinder.removeQuery(this);
+  }
+
+  /**
+   * Judge the classes that changed again, and tell the listener.
+   *
+   * @param classes  every class, by name, after the change
+   * @param previous the classes that changed, by name, as they were before
+   *                 (null for classes that were added), or null to judge
+   *                 every class again
+   */
+  synchronized void update(Map<String, ClassInfo> classes, Map<String, ClassInfo> previous) {
+    if (closed) return;
+    Set<String> toJudge;
+    if (!started || previous == null) {
+      started = true;
+      subtypes.clear();
+      if (needsHierarchy) {
+        for (ClassInfo classInfo : classes.values())
+          addSubtype(classInfo);
+      }
+      toJudge = new LinkedHashSet<>(classes.keySet());
+      toJudge.addAll(passing.keySet());
+    } else {
+      toJudge = new LinkedHashSet<>(previous.keySet());
+      if (needsHierarchy) {
+        for (Map.Entry<String, ClassInfo> change : previous.entrySet()) {
+          removeSubtype(change.getValue());
+          addSubtype(classes.get(change.getKey()));
+        }
+        addSubtypesOf(previous.keySet(), toJudge);
+      }
+    }
+    ClassHierarchyResolver hierarchyResolver = new ClassHierarchyResolver(classes);
+    for (String className : toJudge)
+      judge(className, classes.get(className), hierarchyResolver);
+  }
+
+  private void judge(String className, ClassInfo current, ClassHierarchyResolver hierarchyResolver) {
+    ClassInfo before = passing.get(className);
+    try {
+      if (current != null && (filter == null || filter.accept(current, hierarchyResolver))) {
+        passing.put(className, current);
+        if (before == null) listener.added(current);
+        else if (!sameClass(before, current)) listener.changed(before, current);
+      } else if (before != null) {
+        passing.remove(className);
+        listener.removed(before);
+      }
+    } catch (RuntimeException ex) {
+      log.error("Query listener failed on " + className + ": ", ex);
+    }
+  }
+
+  /**
+   * Add the classes extending or implementing any of the types, however
+   * far below them.
+   */
+  private void addSubtypesOf(Collection<String> types, Set<String> found) {
+    Deque<String> toVisit = new ArrayDeque<>(types);
+    Set<String> visited = new HashSet<>(types);
+    while (!toVisit.isEmpty()) {
+      Set<String> direct = subtypes.get(toVisit.pop());
+      if (direct == null) continue;
+      for (String subtype : direct) {
+        if (visited.add(subtype)) {
+          found.add(subtype);
+          toVisit.push(subtype);
+        }
+      }
+    }
+  }
+
+  private void addSubtype(ClassInfo classInfo) {
+    if (classInfo == null) return;
+    for (String supertype : supertypesOf(classInfo)) {
+      Set<String> direct = subtypes.get(supertype);
+      if (direct == null) {
+        direct = new HashSet<>();
+        subtypes.put(supertype, direct);
+      }
+      direct.add(classInfo.getClassName());
+    }
+  }
+
+  private void removeSubtype(ClassInfo classInfo) {
+    if (classInfo == null) return;
+    for (String supertype : supertypesOf(classInfo)) {
+      Set<String> direct = subtypes.get(supertype);
+      if (direct == null) continue;
+      direct.remove(classInfo.getClassName());
+      if (direct.isEmpty()) subtypes.remove(supertype);
+    }
+  }
+
+  private static Collection<String> supertypesOf(ClassInfo classInfo) {
+    Collection<String> supertypes = new ArrayList<>();
+    if (classInfo.getSuperClassName() != null) supertypes.add(classInfo.getSuperClassName());
+    if (classInfo.getInterfaces() != null) supertypes.addAll(Arrays.asList(classInfo.getInterfaces()));
+    return supertypes;
+  }
+
+  /**
+   * @return true if everything parsed of the classes is the same, null
+   * counting as a class of its own
+   */
+  static boolean sameClass(ClassInfo first, ClassInfo second) {
+    if (first == second) return true;
+    if (first == null || second == null) return false;
+    return first.getClassName().equals(second.getClassName())
+        && Objects.equals(first.getSuperClassName(), second.getSuperClassName())
+        && Arrays.equals(first.getInterfaces(), second.getInterfaces())
+        && first.getModifier() == second.getModifier()
+        && Objects.equals(first.getClassLocation(), second.getClassLocation())
+        && first.getAnnotations().equals(second.getAnnotations())
+        && first.getFields().equals(second.getFields())
+        && first.getMethods().equals(second.getMethods());
+  }
+}
@@ -0,0 +1,211 @@
+package com.poolik.classfinder.cache;
+
+import com.poolik.classfinder.ParseDepth;
+import com.poolik.classfinder.info.ClassInfo;
+import com.poolik.classfinder.io.zip.ArchiveEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>What a {@link ScanCache} knows about one archive or directory: the
+ * classes parsed from it, each with the two numbers that tell whether its
+ * class file is still the same. For an archive entry they are the entry's
+ * CRC and size from the central directory, for a class file in a
+ * directory its size and modification time.</p>
+ *
+ * <p>An archive's own size and modification time are recorded too, along
+ * with its central directory, so an archive that hasn't changed is never
+ * opened. Archives inside archives are recorded by their entry's size and
+ * CRC instead.</p>
+ *
+ * <p>Classes can be looked up and added by several threads at once.</p>
+ */
+public class CachedLocation {
+  private static final Logger log = LoggerFactory.getLogger(CachedLocation.class);
+
+  private final File location;
+  private final long size;
+  private final long lastModified;
+  private final List<ArchiveEntry> entries;
+  private final Map<String, CachedClass> classes = new ConcurrentHashMap<>();
+  private volatile boolean changed;
+
+  CachedLocation(File location, long size, long lastModified, List<ArchiveEntry> entries) {
+    this.location = location;
+    this.size = size;
+    this.lastModified = lastModified;
+    this.entries = entries;
+  }
+
+  /**
+   * Start a record of an archive, keeping the classes of
+   * <tt>previous</tt> whose entries haven't changed.
+   *
+   * @param size         the archive's size
+   * @param lastModified the archive's modification time, or the CRC of
+   *                     its entry for an archive inside another one
+   * @param entries      the archive's entries
+   * @param previous     what was recorded before, or null
+   */
+  public static CachedLocation forArchive(File location, long size, long lastModified,
+                                          List<ArchiveEntry> entries, CachedLocation previous) {
+    CachedLocation record = new CachedLocation(location, size, lastModified, Collections.unmodifiableList(entries));
+    record.changed = true;
+    if (previous == null) return record;
+    for (ArchiveEntry entry : entries) {
+      CachedClass cached = previous.classes.get(entry.getName());
+      if (cached != null && cached.isFor(entry.getCrc(), entry.getSize()))
+        record.classes.put(entry.getName(), cached);
+    }
+    return record;
+  }
+
+  /**
+   * Start a record of a directory, keeping everything recorded in
+   * <tt>previous</tt>. Changed class files are found as the directory is
+   * walked, deleted ones by {@link #dropUnvisited}.
+   *
+   * @param previous what was recorded before, or null
+   */
+  public static CachedLocation forDirectory(File location, CachedLocation previous) {
+    CachedLocation record = new CachedLocation(location, 0, 0, null);
+    if (previous == null) record.changed = true;
+    else record.classes.putAll(previous.classes);
+    return record;
+  }
+
+  public File getLocation() {
+    return location;
+  }
+
+  public boolean isArchive() {
+    return entries != null;
+  }
+
+  /**
+   * @return true if this is the record of an archive with the given size
+   * and modification time, or CRC
+   */
+  public boolean isCurrent(long size, long lastModified) {
+    return isArchive() && this.size == size && this.lastModified == lastModified;
+  }
+
+  /**
+   * @return the archive's entries, ordered by where their data is in it
+   */
+  public List<ArchiveEntry> getEntries() {
+    return entries;
+  }
+
+  /**
+   * Find out whether a class is recorded, without rebuilding it.
+   */
+  public boolean contains(String name, long first, long second, ParseDepth depth) {
+    CachedClass cached = classes.get(name);
+    return cached != null && cached.isFor(first, second) && cached.depth.includes(depth);
+  }
+
+  /**
+   * Get a recorded class, and mark it as still there.
+   *
+   * @param name   the entry's name, or the class file's path in the
+   *               directory
+   * @param first  the entry's CRC, or the class file's size
+   * @param second the entry's size, or the class file's modification time
+   * @param depth  how much of the class has to be known
+   * @return the class, or null if it isn't recorded, has changed, or was
+   * parsed with less detail
+   */
+  public ClassInfo get(String name, long first, long second, ParseDepth depth) {
+    CachedClass cached = classes.get(name);
+    if (cached == null || !cached.isFor(first, second) || !cached.depth.includes(depth)) return null;
+    try {
+      ClassInfo classInfo = ClassInfoFormat.read(cached.data, location);
+      cached.visited = true;
+      return classInfo;
+    } catch (IOException ex) {
+      log.debug("Can't read cached class " + name + " of " + location.getPath() + ": " + ex);
+      return null;
+    }
+  }
+
+  /**
+   * Record a class that has just been parsed.
+   *
+   * @see #get
+   */
+  public void put(String name, long first, long second, ParseDepth depth, ClassInfo classInfo) {
+    byte[] data;
+    try {
+      data = ClassInfoFormat.write(classInfo);
+    } catch (IOException ex) {
+      log.debug("Can't cache class " + name + " of " + location.getPath() + ": " + ex);
+      classes.remove(name);
+      return;
+    }
+    CachedClass cached = new CachedClass(first, second, depth, data);
+    cached.visited = true;
+    classes.put(name, cached);
+    changed = true;
+  }
+
+  /**
+   * Forget the classes that weren't looked up or added since the record
+   * was started, for a directory walked in full.
+   */
+  public void dropUnvisited() {
+    Iterator<CachedClass> iterator = classes.values().iterator();
+    while (iterator.hasNext()) {
+      if (!iterator.next().visited) {
+        iterator.remove();
+        changed = true;
+      }
+    }
+  }
+
+  /**
+   * @return true if the record differs from what was read from the cache
+   */
+  public boolean isChanged() {
+    return changed;
+  }
+
+  long getSize() {
+    return size;
+  }
+
+  long getLastModified() {
+    return lastModified;
+  }
+
+  Map<String, CachedClass> getClasses() {
+    return classes;
+  }
+
+  static class CachedClass {
+    final long first;
+    final long second;
+    final ParseDepth depth;
+    final byte[] data;
+    volatile boolean visited;
+
+    CachedClass(long first, long second, ParseDepth depth, byte[] data) {
+      this.first = first;
+      this.second = second;
+      this.depth = depth;
+      this.data = data;
+    }
+
+    boolean isFor(long first, long second) {
+      return this.first == first && this.second == second;
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package com.poolik.classfinder.cache;
+
+import com.poolik.classfinder.info.AnnotationInfo;
+import com.poolik.classfinder.info.ClassInfo;
+import com.poolik.classfinder.info.FieldInfo;
+import com.poolik.classfinder.info.MethodInfo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Turns a {@link ClassInfo} into bytes and back. A class is rebuilt by
+ * feeding what was recorded to the same constructor and visit methods a
+ * scan uses, so it comes out as if it had been parsed again.
+ */
+final class ClassInfoFormat {
+  private static final byte NO_VALUE = 0;
+  private static final byte INT_VALUE = 1;
+  private static final byte LONG_VALUE = 2;
+  private static final byte FLOAT_VALUE = 3;
+  private static final byte DOUBLE_VALUE = 4;
+  private static final byte STRING_VALUE = 5;
+
+  private ClassInfoFormat() {}
+
+  static byte[] write(ClassInfo classInfo) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeUTF(internalName(classInfo.getClassName()));
+    writeNullable(out, classInfo.getSuperClassName() == null ? null : internalName(classInfo.getSuperClassName()));
+    String[] interfaces = classInfo.getInterfaces();
+    out.writeInt(interfaces == null ? -1 : interfaces.length);
+    if (interfaces != null) {
+      for (String name : interfaces)
+        out.writeUTF(internalName(name));
+    }
+    // Modifier bits have the same values as the access flags they come from
+    out.writeInt(classInfo.getModifier());
+
+    out.writeInt(classInfo.getFields().size());
+    for (FieldInfo field : classInfo.getFields()) {
+      out.writeInt(field.getAccess());
+      out.writeUTF(field.getName());
+      out.writeUTF(field.getDescription());
+      writeNullable(out, field.getSignature());
+      writeValue(out, field.getValue());
+    }
+    out.writeInt(classInfo.getMethods().size());
+    for (MethodInfo method : classInfo.getMethods()) {
+      out.writeInt(method.getAccess());
+      out.writeUTF(method.getName());
+      out.writeUTF(method.getDescription());
+      writeNullable(out, method.getSignature());
+      String[] exceptions = method.getExceptions();
+      out.writeInt(exceptions == null ? -1 : exceptions.length);
+      if (exceptions != null) {
+        for (String exception : exceptions)
+          out.writeUTF(exception);
+      }
+    }
+    out.writeInt(classInfo.getAnnotations().size());
+    for (AnnotationInfo annotation : classInfo.getAnnotations()) {
+      out.writeUTF(annotation.getName());
+      out.writeBoolean(annotation.isVisibleAtRuntime());
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  static ClassInfo read(byte[] data, File location) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+    String name = in.readUTF();
+    String superName = readNullable(in);
+    int interfaceCount = in.readInt();
+    String[] interfaces = interfaceCount < 0 ? null : new String[interfaceCount];
+    for (int i = 0; i < interfaceCount; i++)
+      interfaces[i] = in.readUTF();
+    ClassInfo classInfo = new ClassInfo(name, superName, interfaces, in.readInt(), location);
+
+    int fieldCount = in.readInt();
+    for (int i = 0; i < fieldCount; i++)
+      classInfo.visitField(in.readInt(), in.readUTF(), in.readUTF(), readNullable(in), readValue(in));
+    int methodCount = in.readInt();
+    for (int i = 0; i < methodCount; i++) {
+      int access = in.readInt();
+      String methodName = in.readUTF();
+      String description = in.readUTF();
+      String signature = readNullable(in);
+      int exceptionCount = in.readInt();
+      String[] exceptions = exceptionCount < 0 ? null : new String[exceptionCount];
+      for (int j = 0; j < exceptionCount; j++)
+        exceptions[j] = in.readUTF();
+      classInfo.visitMethod(access, methodName, description, signature, exceptions);
+    }
+    int annotationCount = in.readInt();
+    for (int i = 0; i < annotationCount; i++)
+      classInfo.visitAnnotation("L" + internalName(in.readUTF()) + ";", in.readBoolean());
+    return classInfo;
+  }
+
+  private static String internalName(String className) {
+    return className.replace('.', '/');
+  }
+
+  private static void writeNullable(DataOutputStream out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) out.writeUTF(value);
+  }
+
+  private static String readNullable(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static void writeValue(DataOutputStream out, Object value) throws IOException {
+    if (value instanceof Integer) {
+      out.writeByte(INT_VALUE);
+      out.writeInt((Integer) value);
+    } else if (value instanceof Long) {
+      out.writeByte(LONG_VALUE);
+      out.writeLong((Long) value);
+    } else if (value instanceof Float) {
+      out.writeByte(FLOAT_VALUE);
+      out.writeFloat((Float) value);
+    } else if (value instanceof Double) {
+      out.writeByte(DOUBLE_VALUE);
+      out.writeDouble((Double) value);
+    } else if (value instanceof String) {
+      out.writeByte(STRING_VALUE);
+      out.writeUTF((String) value);
+    } else {
+      out.writeByte(NO_VALUE);
+    }
+  }
+
+  private static Object readValue(DataInputStream in) throws IOException {
+    byte type = in.readByte();
+    switch (type) {
+      case NO_VALUE:
+        return null;
+      case INT_VALUE:
+        return in.readInt();
+      case LONG_VALUE:
+        return in.readLong();
+      case FLOAT_VALUE:
+        return in.readFloat();
+      case DOUBLE_VALUE:
+        return in.readDouble();
+      case STRING_VALUE:
+        return in.readUTF();
+      default:
+        throw new IOException("Unknown field value type " + type);
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package com.poolik.classfinder.cache;
+
+import com.poolik.classfinder.ParseDepth;
+import com.poolik.classfinder.io.zip.ArchiveEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Keeps the classes found in each archive and directory in files of
+ * their own in a cache directory, so later scans only parse the class
+ * files that have changed. See {@link CachedLocation} for how changes are
+ * told apart.</p>
+ *
+ * <p>Cache files are replaced in one step, so several processes can share
+ * a cache directory. A cache file that can't be read is ignored, and its
+ * location is scanned as if it had never been cached.</p>
+ */
+public class ScanCache {
+  private static final Logger log = LoggerFactory.getLogger(ScanCache.class);
+  private static final int MAGIC = 0x43464331;
+  private static final int VERSION = 2;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final Path directory;
+
+  /**
+   * @param directory where to keep the cache files, created when needed
+   */
+  public ScanCache(File directory) {
+    this.directory = directory.toPath();
+  }
+
+  public File getDirectory() {
+    return directory.toFile();
+  }
+
+  /**
+   * @return what was recorded for the location, or null if nothing was,
+   * or the record can't be read
+   */
+  public CachedLocation read(File location) {
+    Path file = cacheFileOf(location);
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      return read(in, location);
+    } catch (NoSuchFileException ex) {
+      return null;
+    } catch (IOException | RuntimeException ex) {
+      log.debug("Ignoring unreadable cache file " + file + " of " + location.getPath() + ": " + ex);
+      return null;
+    }
+  }
+
+  /**
+   * Replace the location's cache file with the record.
+   */
+  public void write(CachedLocation record) throws IOException {
+    Files.createDirectories(directory);
+    Path file = cacheFileOf(record.getLocation());
+    Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        write(out, record);
+      }
+      try {
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException ex) {
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private CachedLocation read(DataInputStream in, File location) throws IOException {
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Not a cache file of this version");
+    if (!in.readUTF().equals(location.getAbsolutePath())) throw new IOException("Cache file of another location");
+    long size = in.readLong();
+    long lastModified = in.readLong();
+    List<ArchiveEntry> entries = null;
+    int entryCount = in.readInt();
+    if (entryCount >= 0) {
+      entries = new ArrayList<>(entryCount);
+      for (int i = 0; i < entryCount; i++)
+        entries.add(new ArchiveEntry(in.readUTF(), in.readInt(), in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+    }
+    CachedLocation record = new CachedLocation(location, size, lastModified, entries);
+    int classCount = in.readInt();
+    ParseDepth[] depths = ParseDepth.values();
+    for (int i = 0; i < classCount; i++) {
+      String name = in.readUTF();
+      long first = in.readLong();
+      long second = in.readLong();
+      ParseDepth depth = depths[in.readByte()];
+      byte[] data = new byte[in.readInt()];
+      in.readFully(data);
+      record.getClasses().put(name, new CachedLocation.CachedClass(first, second, depth, data));
+    }
+    return record;
+  }
+
+  private void write(DataOutputStream out, CachedLocation record) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeUTF(record.getLocation().getAbsolutePath());
+    out.writeLong(record.getSize());
+    out.writeLong(record.getLastModified());
+    List<ArchiveEntry> entries = record.getEntries();
+    out.writeInt(entries == null ? -1 : entries.size());
+    if (entries != null) {
+      for (ArchiveEntry entry : entries) {
+        out.writeUTF(entry.getName());
+        out.writeInt(entry.getMethod());
+        out.writeLong(entry.getCrc());
+        out.writeLong(entry.getCompressedSize());
+        out.writeLong(entry.getSize());
+        out.writeLong(entry.getLocalHeaderOffset());
+      }
+    }
+    Map<String, CachedLocation.CachedClass> classes = record.getClasses();
+    List<Map.Entry<String, CachedLocation.CachedClass>> snapshot = new ArrayList<>(classes.entrySet());
+    out.writeInt(snapshot.size());
+    for (Map.Entry<String, CachedLocation.CachedClass> entry : snapshot) {
+      CachedLocation.CachedClass cached = entry.getValue();
+      out.writeUTF(entry.getKey());
+      out.writeLong(cached.first);
+      out.writeLong(cached.second);
+      out.writeByte(cached.depth.ordinal());
+      out.writeInt(cached.data.length);
+      out.write(cached.data);
+    }
+  }
+
+  private Path cacheFileOf(File location) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(location.getAbsolutePath().getBytes(UTF_8));
+      StringBuilder name = new StringBuilder(digest.length * 2 + 6);
+      for (byte b : digest)
+        name.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+      return directory.resolve(name.append(".cache").toString());
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException("SHA-1 is not available", ex);
+    }
+  }
+}
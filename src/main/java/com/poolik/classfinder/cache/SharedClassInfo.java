@@ -0,0 +1,85 @@
+package com.poolik.classfinder.cache;
+
+import com.poolik.classfinder.info.AnnotationInfo;
+import com.poolik.classfinder.info.ClassInfo;
+import com.poolik.classfinder.info.FieldInfo;
+import com.poolik.classfinder.info.MethodInfo;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A class held by a {@link SharedScanCache}: a copy of the class as it was
+ * parsed, that can't be changed, so no finder given it changes what the
+ * other finders are given.
+ */
+class SharedClassInfo extends ClassInfo {
+  private final String className;
+  private final String superClassName;
+  private final String[] interfaces;
+  private final int modifier;
+  private final File location;
+  private final Set<FieldInfo> fields;
+  private final Set<MethodInfo> methods;
+  private final Set<AnnotationInfo> annotations;
+
+  private SharedClassInfo(ClassInfo classInfo) {
+    this.className = classInfo.getClassName();
+    this.superClassName = classInfo.getSuperClassName();
+    this.interfaces = classInfo.getInterfaces() == null ? null : classInfo.getInterfaces().clone();
+    this.modifier = classInfo.getModifier();
+    this.location = classInfo.getClassLocation();
+    this.fields = Collections.unmodifiableSet(new HashSet<>(classInfo.getFields()));
+    this.methods = Collections.unmodifiableSet(new HashSet<>(classInfo.getMethods()));
+    this.annotations = Collections.unmodifiableSet(new HashSet<>(classInfo.getAnnotations()));
+  }
+
+  /**
+   * @return a copy of the class that can't be changed
+   */
+  static ClassInfo of(ClassInfo classInfo) {
+    return classInfo instanceof SharedClassInfo ? classInfo : new SharedClassInfo(classInfo);
+  }
+
+  @Override
+  public String getClassName() {
+    return className;
+  }
+
+  @Override
+  public String getSuperClassName() {
+    return superClassName;
+  }
+
+  @Override
+  public String[] getInterfaces() {
+    return interfaces == null ? null : interfaces.clone();
+  }
+
+  @Override
+  public int getModifier() {
+    return modifier;
+  }
+
+  @Override
+  public File getClassLocation() {
+    return location;
+  }
+
+  @Override
+  public Set<FieldInfo> getFields() {
+    return fields;
+  }
+
+  @Override
+  public Set<MethodInfo> getMethods() {
+    return methods;
+  }
+
+  @Override
+  public Set<AnnotationInfo> getAnnotations() {
+    return annotations;
+  }
+}
@@ -0,0 +1,243 @@
+package com.poolik.classfinder.cache;
+
+import com.poolik.classfinder.ParseDepth;
+import com.poolik.classfinder.info.ClassInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Keeps the classes found in archives in memory, to be shared by every
+ * {@link com.poolik.classfinder.ClassFinder} of the JVM given the same
+ * cache, so an archive searched by several finders, or several times, is
+ * parsed once. An archive's classes are reused while its size and
+ * modification time stay the same, and if they were parsed to at least
+ * the depth asked for.</p>
+ *
+ * <p>The cache holds at most a given number of classes, dropping the
+ * archives used least recently to make room. Its classes can also be held
+ * through soft references, letting the garbage collector drop them when
+ * memory runs low; an archive whose classes were dropped is simply parsed
+ * again.</p>
+ *
+ * <p>The cache holds copies of the classes put in it, which can't be
+ * changed, and every finder taking an archive's classes from it is given
+ * the same copies. Changing the classes a finder was given before they
+ * were put in the cache doesn't change the copies.</p>
+ *
+ * <p>A <tt>SharedScanCache</tt> can be used by several threads at
+ * once.</p>
+ */
+public class SharedScanCache {
+  /**
+   * How many classes {@link #getDefault()} holds at most.
+   */
+  public static final long DEFAULT_MAX_CLASSES = 200000;
+  private static final SharedScanCache DEFAULT = new SharedScanCache(DEFAULT_MAX_CLASSES, true);
+
+  private final long maxClasses;
+  private final boolean softReferences;
+  private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private long classCount;
+
+  /**
+   * @param maxClasses     the most classes to hold, over all archives
+   * @param softReferences true to let the garbage collector drop classes
+   *                       when memory runs low
+   */
+  public SharedScanCache(long maxClasses, boolean softReferences) {
+    if (maxClasses < 1) throw new IllegalArgumentException("Max classes must be at least 1, was " + maxClasses);
+    this.maxClasses = maxClasses;
+    this.softReferences = softReferences;
+  }
+
+  /**
+   * @return the cache shared by the whole JVM, holding at most
+   * {@link #DEFAULT_MAX_CLASSES} classes through soft references
+   */
+  public static SharedScanCache getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * @param archive        the archive, as it is searched
+   * @param size           the archive's size
+   * @param lastModified   the archive's modification time
+   * @param parseDepth     the least the classes must have been parsed to
+   * @param nestedArchives whether the classes of archives stored in the
+   *                       archive are wanted too
+   * @return the archive's classes, or null if they aren't held. Neither
+   * the list nor its classes can be changed.
+   */
+  public List<ClassInfo> get(File archive, long size, long lastModified, ParseDepth parseDepth, boolean nestedArchives) {
+    String key = keyOf(archive, nestedArchives);
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      List<ClassInfo> classes = entry == null ? null : entry.getClasses();
+      if (entry != null && (classes == null || entry.size != size || entry.lastModified != lastModified)) {
+        // Changed since, or dropped by the garbage collector
+        remove(key);
+      } else if (classes != null && entry.archive.equals(archive) && entry.parseDepth.includes(parseDepth)) {
+        hits.incrementAndGet();
+        return classes;
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Hold copies of the classes of an archive, in place of any held before.
+   *
+   * @see #get
+   */
+  public void put(File archive, long size, long lastModified, ParseDepth parseDepth, boolean nestedArchives,
+                  List<ClassInfo> classes) {
+    String key = keyOf(archive, nestedArchives);
+    synchronized (this) {
+      remove(key);
+      if (classes.size() > maxClasses) return;
+      entries.put(key, new Entry(archive, size, lastModified, parseDepth, classes, softReferences));
+      classCount += classes.size();
+      if (classCount > maxClasses) dropCollected();
+      for (Iterator<Entry> it = entries.values().iterator(); classCount > maxClasses && it.hasNext(); ) {
+        classCount -= it.next().classCount;
+        it.remove();
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Act as if the garbage collector had dropped the classes held for the
+   * archive, as it may when they are held through soft references.
+   */
+  synchronized void dropClassesOf(File archive, boolean nestedArchives) {
+    Entry entry = entries.get(keyOf(archive, nestedArchives));
+    if (entry != null && entry.softClasses != null) entry.softClasses.clear();
+  }
+
+  /**
+   * Drop every class held. The statistics are kept.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    classCount = 0;
+  }
+
+  /**
+   * @return how many times an archive's classes were found in the cache
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * @return how many times an archive's classes had to be parsed
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * @return how many archives' classes were dropped to make room for
+   * others
+   */
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * @return how many classes are held, counting those the garbage
+   * collector may have dropped but the cache hasn't noticed yet
+   */
+  public synchronized long getClassCount() {
+    return classCount;
+  }
+
+  /**
+   * @return how many archives' classes are held
+   */
+  public synchronized int getArchiveCount() {
+    return entries.size();
+  }
+
+  public long getMaxClasses() {
+    return maxClasses;
+  }
+
+  @Override
+  public String toString() {
+    return "SharedScanCache[hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount()
+        + ", archives=" + getArchiveCount() + ", classes=" + getClassCount() + "/" + maxClasses + "]";
+  }
+
+  /**
+   * Drop the archives whose classes the garbage collector dropped, so they
+   * don't take the room of archives still held.
+   */
+  private void dropCollected() {
+    for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+      Entry entry = it.next();
+      if (entry.getClasses() == null) {
+        classCount -= entry.classCount;
+        it.remove();
+      }
+    }
+  }
+
+  private void remove(String key) {
+    Entry entry = entries.remove(key);
+    if (entry != null) classCount -= entry.classCount;
+  }
+
+  private static String keyOf(File archive, boolean nestedArchives) {
+    String path;
+    try {
+      path = archive.getCanonicalPath();
+    } catch (IOException ex) {
+      path = archive.getAbsolutePath();
+    }
+    return (nestedArchives ? "nested:" : "") + path;
+  }
+
+  private static class Entry {
+    final File archive;
+    final long size;
+    final long lastModified;
+    final ParseDepth parseDepth;
+    final int classCount;
+    private final List<ClassInfo> classes;
+    final SoftReference<List<ClassInfo>> softClasses;
+
+    Entry(File archive, long size, long lastModified, ParseDepth parseDepth, List<ClassInfo> classes,
+          boolean softReference) {
+      this.archive = archive;
+      this.size = size;
+      this.lastModified = lastModified;
+      this.parseDepth = parseDepth;
+      this.classCount = classes.size();
+      List<ClassInfo> copies = new ArrayList<>(classes.size());
+      for (ClassInfo classInfo : classes)
+        copies.add(SharedClassInfo.of(classInfo));
+      List<ClassInfo> held = Collections.unmodifiableList(copies);
+      this.classes = softReference ? null : held;
+      this.softClasses = softReference ? new SoftReference<>(held) : null;
+    }
+
+    List<ClassInfo> getClasses() {
+      return softClasses != null ? softClasses.get() : classes;
+    }
+  }
+}
@@ -103,6 +103,10 @@ public final class And implements ClassFilter {
     return this;
   }
 
+  List<ClassFilter> getFilters() {
+    return filters;
+  }
+
   /**
    * <p>Determine whether a class name is to be accepted or not, based on
    * the contained filters. The class name is accepted if any one of the
@@ -4,22 +4,69 @@ import com.poolik.classfinder.ClassHierarchyResolver;
 import com.poolik.classfinder.info.AnnotationInfo;
 import com.poolik.classfinder.info.ClassInfo;
 
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Accepts classes annotated with an annotation. The annotation is told by
+ * its class name, so it doesn't have to be loaded, and may be required to
+ * be visible at runtime, or not. A {@link com.poolik.classfinder.ClassFinder}
+ * looks the annotated classes up in an
+ * {@link com.poolik.classfinder.AnnotationIndex} instead of asking this
+ * filter about every class.
+ */
 public class Annotated implements ClassFilter {
-  private final Class<?> annotation;
+  private final String annotationName;
+  private final RetentionPolicy retention;
 
   public static ClassFilter with(Class<?> annotation) {
     return new Annotated(annotation);
   }
 
+  public static ClassFilter with(String annotationName) {
+    return new Annotated(annotationName, null);
+  }
+
+  /**
+   * @param retention {@link RetentionPolicy#RUNTIME} to accept only
+   *                  annotations visible at runtime,
+   *                  {@link RetentionPolicy#CLASS} to accept only the
+   *                  others, or null for either
+   */
+  public static ClassFilter with(String annotationName, RetentionPolicy retention) {
+    return new Annotated(annotationName, retention);
+  }
+
   public Annotated(Class<?> annotation) {
-    this.annotation = annotation;
+    this(annotation.getName(), null);
+  }
+
+  public Annotated(String annotationName, RetentionPolicy retention) {
+    if (retention == RetentionPolicy.SOURCE)
+      throw new IllegalArgumentException("Annotations of " + retention + " retention aren't kept in class files");
+    this.annotationName = annotationName;
+    this.retention = retention;
+  }
+
+  public String getAnnotationName() {
+    return annotationName;
+  }
+
+  /**
+   * @return the retention the annotation must have, or null for either
+   */
+  public RetentionPolicy getRetention() {
+    return retention;
   }
 
   @Override
   public boolean accept(ClassInfo classInfo, ClassHierarchyResolver hierarchyFinder) {
     for (AnnotationInfo annotationInfo : classInfo.getAnnotations()) {
-      if (annotation.getName().equals(annotationInfo.getName())) return true;
+      if (annotationName.equals(annotationInfo.getName()) && hasRetention(annotationInfo)) return true;
     }
     return false;
   }
+
+  private boolean hasRetention(AnnotationInfo annotationInfo) {
+    return retention == null || annotationInfo.isVisibleAtRuntime() == (retention == RetentionPolicy.RUNTIME);
+  }
 }
@@ -0,0 +1,165 @@
+package com.poolik.classfinder.filter;
+
+import com.poolik.classfinder.ParseDepth;
+import com.poolik.classfinder.io.Predicate;
+import com.poolik.classfinder.io.Predicates;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Works out what a {@link ClassFilter} tree looks at, so a scan only
+ * decodes as much of each class file as the filter needs.</p>
+ *
+ * <p>Only the filters in this package are known; their subclasses and any
+ * other {@link ClassFilter} implementation are assumed to look at
+ * everything a {@link com.poolik.classfinder.info.ClassInfo} holds.</p>
+ */
+public final class FilterAnalyzer {
+
+  private FilterAnalyzer() {}
+
+  /**
+   * Get the least detail a class has to be parsed with for the filter to
+   * give the same answer it would on a fully parsed class.
+   *
+   * @param filter the filter, or null for no filter
+   * @return the required parse depth
+   */
+  public static ParseDepth requiredParseDepth(ClassFilter filter) {
+    if (filter == null) return ParseDepth.HEADER;
+
+    Class<?> type = filter.getClass();
+    if (type == And.class) return deepestOf(((And) filter).getFilters());
+    if (type == Or.class) return deepestOf(((Or) filter).getFilters());
+    if (type == Not.class) return requiredParseDepth(((Not) filter).getFilter());
+    if (type == Annotated.class) return ParseDepth.ANNOTATIONS;
+    if (isHeaderOnly(type)) return ParseDepth.HEADER;
+    return ParseDepth.MEMBERS;
+  }
+
+  /**
+   * Find out whether the filter looks at other classes through the
+   * {@link com.poolik.classfinder.ClassHierarchyResolver}. Filters that
+   * don't can judge each class as soon as it is parsed; the others have
+   * to wait until every class has been found.
+   *
+   * @param filter the filter, or null for no filter
+   * @return true if the filter needs the class hierarchy
+   */
+  public static boolean needsHierarchy(ClassFilter filter) {
+    if (filter == null) return false;
+
+    Class<?> type = filter.getClass();
+    if (type == And.class) return anyNeedsHierarchy(((And) filter).getFilters());
+    if (type == Or.class) return anyNeedsHierarchy(((Or) filter).getFilters());
+    if (type == Not.class) return needsHierarchy(((Not) filter).getFilter());
+    return type == Subclass.class || !(type == Annotated.class || isHeaderOnly(type));
+  }
+
+  /**
+   * Find an annotation every class passing the filter must carry, so the
+   * classes to judge can be looked up in an
+   * {@link com.poolik.classfinder.AnnotationIndex}.
+   *
+   * @param filter the filter, or null for no filter
+   * @return the {@link Annotated} filter the filter requires to pass, or
+   * null if there is none
+   */
+  public static Annotated requiredAnnotation(ClassFilter filter) {
+    if (filter == null) return null;
+
+    Class<?> type = filter.getClass();
+    if (type == Annotated.class) return (Annotated) filter;
+    if (type == And.class) {
+      for (ClassFilter child : ((And) filter).getFilters()) {
+        Annotated annotated = requiredAnnotation(child);
+        if (annotated != null) return annotated;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * <p>Turn the text a filter's {@link Regex} patterns require of a class
+   * name into a test on the names of class entries in an archive, so
+   * entries that can't pass the filter are skipped before they are read.
+   * A literal prefix such as <tt>^com\\.acme\\.</tt> keeps only entries
+   * under <tt>com/acme/</tt>, below any directory such as
+   * <tt>BOOT-INF/classes/</tt>; other literal text must appear somewhere in
+   * the name.</p>
+   *
+   * <p>Only what a pattern is sure to need is used, so the test lets
+   * through every entry of a class the filter would accept, as long as the
+   * entry is stored under its class's name.</p>
+   *
+   * @param filter the filter, or null for no filter
+   * @return the test, or null if the filter says nothing about entry names
+   */
+  public static Predicate<String> classEntryNames(ClassFilter filter) {
+    if (filter == null) return null;
+
+    Class<?> type = filter.getClass();
+    if (type == Regex.class) return classEntryNames(RegexLiterals.of(((Regex) filter).getPattern()));
+    if (type == And.class) {
+      List<Predicate<String>> tests = new ArrayList<>();
+      for (ClassFilter child : ((And) filter).getFilters()) {
+        Predicate<String> test = classEntryNames(child);
+        if (test != null) tests.add(test);
+      }
+      return tests.isEmpty() ? null : Predicates.and(tests);
+    }
+    if (type == Or.class) {
+      List<Predicate<String>> tests = new ArrayList<>();
+      for (ClassFilter child : ((Or) filter).getFilters()) {
+        Predicate<String> test = classEntryNames(child);
+        if (test == null) return null;
+        tests.add(test);
+      }
+      return tests.isEmpty() ? null : Predicates.or(tests);
+    }
+    // A Not holding a Regex still accepts names without the literals
+    return null;
+  }
+
+  private static Predicate<String> classEntryNames(RegexLiterals literals) {
+    if (literals == null) return null;
+
+    final String prefix = literals.getPrefix() == null ? null : literals.getPrefix().replace('.', '/');
+    final List<String> required = new ArrayList<>();
+    for (String literal : literals.getLiterals())
+      required.add(literal.replace('.', '/'));
+    return new Predicate<String>() {
+      @Override
+      public boolean apply(String name) {
+        if (prefix != null && !name.startsWith(prefix) && !name.contains("/" + prefix)) return false;
+        for (String literal : required) {
+          if (!name.contains(literal)) return false;
+        }
+        return true;
+      }
+    };
+  }
+
+  private static boolean anyNeedsHierarchy(Iterable<ClassFilter> filters) {
+    for (ClassFilter filter : filters) {
+      if (needsHierarchy(filter)) return true;
+    }
+    return false;
+  }
+
+  private static boolean isHeaderOnly(Class<?> type) {
+    return type == Regex.class
+        || type == Subclass.class
+        || type == ClassModifiers.class
+        || type == AbstractClass.class
+        || type == Interface.class;
+  }
+
+  private static ParseDepth deepestOf(Iterable<ClassFilter> filters) {
+    ParseDepth depth = ParseDepth.HEADER;
+    for (ClassFilter filter : filters)
+      depth = ParseDepth.deepest(depth, requiredParseDepth(filter));
+    return depth;
+  }
+}
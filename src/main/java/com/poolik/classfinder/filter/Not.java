@@ -80,6 +80,10 @@ public class Not implements ClassFilter {
     this.filter = filter;
   }
 
+  ClassFilter getFilter() {
+    return filter;
+  }
+
   /**
    * Tests whether a class name should be included in a class name
    * list.
@@ -96,6 +96,10 @@ public final class Or implements ClassFilter {
     return this;
   }
 
+  List<ClassFilter> getFilters() {
+    return filters;
+  }
+
   /**
    * <p>Determine whether a class name is to be accepted or not, based on
    * the contained filters. The class name name is accepted if any
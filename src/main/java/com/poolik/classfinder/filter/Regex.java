@@ -112,4 +112,8 @@ public class Regex implements ClassFilter {
   public boolean accept(ClassInfo classInfo, ClassHierarchyResolver hierarchyResolver) {
     return pattern.matcher(classInfo.getClassName()).find();
   }
+
+  Pattern getPattern() {
+    return pattern;
+  }
 }
\ No newline at end of file
@@ -0,0 +1,202 @@
+package com.poolik.classfinder.filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The literal text every string found by a regular expression must
+ * contain, worked out from the expression without running it. Only simple
+ * expressions are understood: anything with alternation at the top level,
+ * flags, or quoting gives up rather than risk a wrong answer.
+ */
+final class RegexLiterals {
+  private final String prefix;
+  private final List<String> literals;
+
+  private RegexLiterals(String prefix, List<String> literals) {
+    this.prefix = prefix;
+    this.literals = literals;
+  }
+
+  /**
+   * @return the text a matching string must start with, if the expression
+   * is anchored with <tt>^</tt>, otherwise null
+   */
+  String getPrefix() {
+    return prefix;
+  }
+
+  /**
+   * @return runs of text a string must contain to be matched, including
+   * the prefix
+   */
+  List<String> getLiterals() {
+    return literals;
+  }
+
+  /**
+   * @return the literals of the pattern, or null if none could be found
+   */
+  static RegexLiterals of(Pattern pattern) {
+    if (pattern.flags() != 0) return null;
+    return new Parser(pattern.pattern()).parse();
+  }
+
+  private static class Parser {
+    private final String regex;
+    private final List<String> literals = new ArrayList<>();
+    private final StringBuilder run = new StringBuilder();
+    private String prefix;
+    private boolean runIsPrefix;
+    private int pos;
+
+    Parser(String regex) {
+      this.regex = regex;
+    }
+
+    RegexLiterals parse() {
+      if (regex.contains("\\Q")) return null;
+      if (regex.startsWith("^")) {
+        runIsPrefix = true;
+        pos = 1;
+      }
+      while (pos < regex.length()) {
+        int atom = parseAtom();
+        if (atom == FAIL) return null;
+        int min = parseQuantifier();
+        if (min == FAIL) return null;
+        if (min == NO_QUANTIFIER) {
+          if (atom >= 0) run.append((char) atom);
+          else endRun();
+        } else {
+          if (atom >= 0 && min >= 1) run.append((char) atom);
+          endRun();
+        }
+      }
+      endRun();
+      if (prefix == null && literals.isEmpty()) return null;
+      return new RegexLiterals(prefix, Collections.unmodifiableList(literals));
+    }
+
+    private static final int FAIL = -2;
+    private static final int NOT_LITERAL = -1;
+    private static final int NO_QUANTIFIER = -1;
+
+    /**
+     * @return the literal character matched, {@link #NOT_LITERAL} or
+     * {@link #FAIL}
+     */
+    private int parseAtom() {
+      char c = regex.charAt(pos);
+      switch (c) {
+        case '\\':
+          return parseEscape();
+        case '[':
+          return skipCharacterClass() ? NOT_LITERAL : FAIL;
+        case '(':
+          return skipGroup() ? NOT_LITERAL : FAIL;
+        case '.':
+        case '^':
+        case '$':
+          pos++;
+          return NOT_LITERAL;
+        case '|':
+        case ')':
+        case '*':
+        case '+':
+        case '?':
+        case '{':
+          return FAIL;
+        default:
+          pos++;
+          return c;
+      }
+    }
+
+    private int parseEscape() {
+      if (pos + 1 >= regex.length()) return FAIL;
+      char c = regex.charAt(pos + 1);
+      pos += 2;
+      if ("dDsSwWbB".indexOf(c) >= 0) return NOT_LITERAL;
+      if (Character.isLetterOrDigit(c)) return FAIL;
+      return c;
+    }
+
+    private boolean skipCharacterClass() {
+      pos++;
+      if (pos < regex.length() && regex.charAt(pos) == '^') pos++;
+      if (pos < regex.length() && regex.charAt(pos) == ']') pos++;
+      int depth = 1;
+      while (pos < regex.length() && depth > 0) {
+        char c = regex.charAt(pos);
+        if (c == '\\') pos++;
+        else if (c == '[') depth++;
+        else if (c == ']') depth--;
+        pos++;
+      }
+      return depth == 0;
+    }
+
+    private boolean skipGroup() {
+      if (regex.startsWith("(?", pos) && (pos + 2 >= regex.length() || ":=!<>".indexOf(regex.charAt(pos + 2)) < 0))
+        return false;
+      pos++;
+      int depth = 1;
+      while (pos < regex.length() && depth > 0) {
+        char c = regex.charAt(pos);
+        if (c == '[') {
+          if (!skipCharacterClass()) return false;
+          continue;
+        }
+        if (c == '\\') pos++;
+        else if (c == '(') depth++;
+        else if (c == ')') depth--;
+        pos++;
+      }
+      return depth == 0;
+    }
+
+    /**
+     * @return the least number of times the atom before is matched,
+     * {@link #NO_QUANTIFIER} or {@link #FAIL}
+     */
+    private int parseQuantifier() {
+      if (pos >= regex.length()) return NO_QUANTIFIER;
+      int min;
+      char c = regex.charAt(pos);
+      if (c == '?' || c == '*') {
+        min = 0;
+        pos++;
+      } else if (c == '+') {
+        min = 1;
+        pos++;
+      } else if (c == '{') {
+        int end = regex.indexOf('}', pos);
+        if (end < 0) return FAIL;
+        String bounds = regex.substring(pos + 1, end);
+        int comma = bounds.indexOf(',');
+        try {
+          min = Integer.parseInt(comma < 0 ? bounds : bounds.substring(0, comma));
+        } catch (NumberFormatException ex) {
+          return FAIL;
+        }
+        pos = end + 1;
+      } else {
+        return NO_QUANTIFIER;
+      }
+      if (pos < regex.length() && (regex.charAt(pos) == '?' || regex.charAt(pos) == '+')) pos++;
+      return min;
+    }
+
+    private void endRun() {
+      if (run.length() > 0) {
+        if (runIsPrefix) prefix = run.toString();
+        literals.add(run.toString());
+        run.setLength(0);
+      }
+      runIsPrefix = false;
+    }
+  }
+}
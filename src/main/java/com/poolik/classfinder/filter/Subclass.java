@@ -49,44 +49,73 @@ package com.poolik.classfinder.filter;
 import com.poolik.classfinder.ClassHierarchyResolver;
 import com.poolik.classfinder.info.ClassInfo;
 
-import java.util.Map;
-
 /**
  * <p><tt>Subclass</tt> is a {@link ClassFilter} that matches
- * class names that (a) can be loaded and (b) extend a given subclass or
- * implement a specified interface, directly or indirectly. It uses the
- * <tt>java.lang.Class.isAssignableFrom()</tt> method, so it actually has to
- * load each class it tests. For maximum flexibility, a
- * <tt>Subclass</tt> can be configured to use a specific class
- * loader.</p>
+ * classes that extend a given class or implement a given interface,
+ * directly or indirectly. The test is made on names only: the
+ * {@link ClassHierarchyResolver} follows the super class and interface
+ * names of the found classes, so neither the base nor the tested classes
+ * are loaded.</p>
+ *
+ * <p>A <tt>Subclass</tt> made from a <tt>Class</tt> knows whether it is
+ * looking for a class or an interface, and only looks among the super
+ * classes or the interfaces. One made from a name alone doesn't, and
+ * matches classes that have the name among either.</p>
  *
  * @author Copyright &copy; 2006 Brian M. Clapper
  * @version <tt>$Revision$</tt>
  */
 public class Subclass implements ClassFilter {
-  private final Class baseClass;
+  private final String baseClassName;
+  private final Boolean baseIsInterface;
 
   public static Subclass of(Class baseClassOrInterface) {
     return new Subclass(baseClassOrInterface);
   }
 
+  /**
+   * Match classes extending or implementing the class or interface of the
+   * given name, without loading it.
+   *
+   * @param baseClassOrInterfaceName the name, such as
+   *                                 <tt>java.lang.Runnable</tt>
+   */
+  public static Subclass of(String baseClassOrInterfaceName) {
+    return new Subclass(baseClassOrInterfaceName);
+  }
+
   public Subclass(Class baseClassOrInterface) {
-    this.baseClass = baseClassOrInterface;
+    this.baseClassName = baseClassOrInterface.getName();
+    this.baseIsInterface = baseClassOrInterface.isInterface();
+  }
+
+  /**
+   * @param baseClassOrInterfaceName the name of the class or interface.
+   *                                 Not knowing which it is, classes are
+   *                                 looked for among both the super classes
+   *                                 and the interfaces.
+   */
+  public Subclass(String baseClassOrInterfaceName) {
+    this.baseClassName = baseClassOrInterfaceName;
+    this.baseIsInterface = null;
+  }
+
+  /**
+   * @return the name of the class or interface looked for
+   */
+  public String getBaseClassName() {
+    return baseClassName;
   }
 
   /**
-   * Perform the acceptance test on the loaded <tt>Class</tt> object.
+   * Perform the acceptance test on the names in the class's hierarchy.
    *
-   * @return <tt>true</tt> if the class name matches,
+   * @return <tt>true</tt> if the class extends or implements the base,
    * <tt>false</tt> if it doesn't
    */
   public boolean accept(ClassInfo classInfo, ClassHierarchyResolver hierarchyResolver) {
-    Map<String, ClassInfo> superClasses;
-    if (baseClass.isInterface())
-      superClasses = hierarchyResolver.findAllInterfaces(classInfo);
-    else
-      superClasses = hierarchyResolver.findAllSuperClasses(classInfo);
-
-    return superClasses.keySet().contains(baseClass.getName());
+    if (baseIsInterface == null) return hierarchyResolver.isSubtypeOf(classInfo, baseClassName);
+    if (baseIsInterface) return hierarchyResolver.implementsInterface(classInfo, baseClassName);
+    return hierarchyResolver.isSubclassOf(classInfo, baseClassName);
   }
 }
\ No newline at end of file
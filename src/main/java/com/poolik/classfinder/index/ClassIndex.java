@@ -0,0 +1,286 @@
+package com.poolik.classfinder.index;
+
+import com.poolik.classfinder.ClassHierarchyResolver;
+import com.poolik.classfinder.ParseDepth;
+import com.poolik.classfinder.filter.ClassFilter;
+import com.poolik.classfinder.filter.FilterAnalyzer;
+import com.poolik.classfinder.info.ClassInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.poolik.classfinder.index.ClassIndexFormat.*;
+
+/**
+ * <p>Classes written by {@link ClassIndexWriter}, read straight from the
+ * index file mapped into memory. Nothing is decoded up front: a class's
+ * name, super class and interfaces are read from its record when asked
+ * for, and its members and annotations the first time any of them is.
+ * Several processes mapping the same index share its pages.</p>
+ *
+ * <p>A jar carrying an index as {@link #RESOURCE_NAME} has its classes
+ * taken from there by {@link com.poolik.classfinder.ClassFinder} instead
+ * of from its class files. See {@link ClassIndexTool} for writing one at
+ * build time.</p>
+ *
+ * <p>A <tt>ClassIndex</tt> can be read from by several threads at
+ * once.</p>
+ */
+public class ClassIndex {
+  /**
+   * Where in a jar its index is looked for.
+   */
+  public static final String RESOURCE_NAME = "META-INF/classfinder.idx";
+
+  private final ByteBuffer index;
+  private final File location;
+  private final ParseDepth parseDepth;
+  private final int classCount;
+  private final int stringOffsets;
+  private final int stringData;
+  private final int records;
+  private final AtomicReferenceArray<String> strings;
+  private final AtomicReferenceArray<File> locations;
+  private final AtomicReferenceArray<ClassInfo> classes;
+
+  /**
+   * @param index the index, between the buffer's position and limit. The
+   *              buffer's position and limit are left unchanged.
+   * @throws IOException if the buffer does not hold an index of this
+   *                     version
+   */
+  public ClassIndex(ByteBuffer index) throws IOException {
+    this(index, null);
+  }
+
+  /**
+   * @param index    the index, between the buffer's position and limit.
+   *                 The buffer's position and limit are left unchanged.
+   * @param location where every class is reported to be found, such as
+   *                 the jar the index was read from, or null for where
+   *                 they were found when the index was written
+   * @throws IOException if the buffer does not hold an index of this
+   *                     version
+   */
+  public ClassIndex(ByteBuffer index, File location) throws IOException {
+    this.location = location;
+    this.index = index.slice();
+    if (this.index.limit() < HEADER_SIZE || this.index.getInt(0) != MAGIC)
+      throw new IOException("Not a class index");
+    if (this.index.getInt(4) != VERSION)
+      throw new IOException("Class index version " + this.index.getInt(4) + " is not supported");
+    if (this.index.getInt(FILE_SIZE) != this.index.limit())
+      throw new IOException("Class index is " + this.index.limit() + " bytes, should be " + this.index.getInt(FILE_SIZE));
+    int depth = this.index.getInt(PARSE_DEPTH);
+    if (depth < 0 || depth >= ParseDepth.values().length)
+      throw new IOException("Class index has unknown parse depth " + depth);
+    this.parseDepth = ParseDepth.values()[depth];
+    this.classCount = checkedHeaderValue(CLASS_COUNT, "class count");
+    this.stringOffsets = checkedHeaderValue(STRING_OFFSETS, "string offsets");
+    this.stringData = checkedHeaderValue(STRING_DATA, "string data");
+    this.records = checkedHeaderValue(CLASS_RECORDS, "class records");
+    int stringCount = checkedHeaderValue(STRING_COUNT, "string count");
+    this.strings = new AtomicReferenceArray<>(stringCount);
+    this.locations = new AtomicReferenceArray<>(stringCount);
+    this.classes = new AtomicReferenceArray<>(classCount);
+  }
+
+  /**
+   * @return a count or offset of the header, which can't be more than the
+   * size of the index
+   */
+  private int checkedHeaderValue(int offset, String name) throws IOException {
+    int value = index.getInt(offset);
+    if (value < 0 || value > index.limit())
+      throw new IOException("Class index has bad " + name + " " + value);
+    return value;
+  }
+
+  /**
+   * Map an index file into memory.
+   *
+   * @throws IOException if the file is not an index of this version
+   */
+  public static ClassIndex open(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) throw new IOException(file + " is too large to map, " + size + " bytes");
+      return new ClassIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+    }
+  }
+
+  /**
+   * @return what was parsed of the indexed classes
+   */
+  public ParseDepth getParseDepth() {
+    return parseDepth;
+  }
+
+  public int size() {
+    return classCount;
+  }
+
+  /**
+   * @param position the class's position in class name order
+   */
+  public ClassInfo get(int position) {
+    if (position < 0 || position >= classCount)
+      throw new IndexOutOfBoundsException("Class " + position + " of " + classCount);
+    ClassInfo classInfo = classes.get(position);
+    if (classInfo == null) {
+      classes.compareAndSet(position, null, new IndexedClassInfo(this, records + position * RECORD_SIZE));
+      classInfo = classes.get(position);
+    }
+    return classInfo;
+  }
+
+  /**
+   * @return the class with the name, or null if it isn't in the index
+   */
+  public ClassInfo find(String className) {
+    int low = 0;
+    int high = classCount - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int comparison = string(index.getInt(records + middle * RECORD_SIZE + RECORD_NAME)).compareTo(className);
+      if (comparison < 0) low = middle + 1;
+      else if (comparison > 0) high = middle - 1;
+      else return get(middle);
+    }
+    return null;
+  }
+
+  /**
+   * @return every class, in class name order
+   */
+  public List<ClassInfo> getClasses() {
+    return new AbstractList<ClassInfo>() {
+      @Override
+      public ClassInfo get(int position) {
+        return ClassIndex.this.get(position);
+      }
+
+      @Override
+      public int size() {
+        return classCount;
+      }
+    };
+  }
+
+  /**
+   * @return the classes by name, looked up with a binary search
+   */
+  public Map<String, ClassInfo> asMap() {
+    return new AbstractMap<String, ClassInfo>() {
+      @Override
+      public ClassInfo get(Object key) {
+        return key instanceof String ? find((String) key) : null;
+      }
+
+      @Override
+      public boolean containsKey(Object key) {
+        return get(key) != null;
+      }
+
+      @Override
+      public int size() {
+        return classCount;
+      }
+
+      @Override
+      public Set<Entry<String, ClassInfo>> entrySet() {
+        return new AbstractSet<Entry<String, ClassInfo>>() {
+          @Override
+          public Iterator<Entry<String, ClassInfo>> iterator() {
+            final Iterator<ClassInfo> classes = getClasses().iterator();
+            return new Iterator<Entry<String, ClassInfo>>() {
+              @Override
+              public boolean hasNext() {
+                return classes.hasNext();
+              }
+
+              @Override
+              public Entry<String, ClassInfo> next() {
+                ClassInfo classInfo = classes.next();
+                return new SimpleImmutableEntry<>(classInfo.getClassName(), classInfo);
+              }
+
+              @Override
+              public void remove() {
+                throw new UnsupportedOperationException();
+              }
+            };
+          }
+
+          @Override
+          public int size() {
+            return classCount;
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * Find the indexed classes passing the filter, the way
+   * {@link com.poolik.classfinder.ClassFinder#findClasses} would have.
+   *
+   * @param filter the filter, or null to get every class
+   */
+  public Collection<ClassInfo> findClasses(ClassFilter filter) {
+    if (filter == null) return new ArrayList<>(getClasses());
+    ClassHierarchyResolver hierarchyResolver = FilterAnalyzer.needsHierarchy(filter)
+        ? ClassHierarchyResolver.forAllClasses(asMap())
+        : new ClassHierarchyResolver(asMap());
+    Collection<ClassInfo> found = new ArrayList<>();
+    for (ClassInfo classInfo : getClasses()) {
+      if (filter.accept(classInfo, hierarchyResolver)) found.add(classInfo);
+    }
+    return found;
+  }
+
+  int getInt(int offset) {
+    return index.getInt(offset);
+  }
+
+  String string(int id) {
+    if (id == NONE) return null;
+    String string = strings.get(id);
+    if (string == null) {
+      int start = stringData + index.getInt(stringOffsets + 4 * id);
+      int end = stringData + index.getInt(stringOffsets + 4 * id + 4);
+      byte[] bytes = new byte[end - start];
+      ByteBuffer buf = index.duplicate();
+      buf.position(start);
+      buf.get(bytes);
+      string = new String(bytes, UTF_8);
+      strings.lazySet(id, string);
+    }
+    return string;
+  }
+
+  File location(int id) {
+    if (location != null) return location;
+    if (id == NONE) return null;
+    File location = locations.get(id);
+    if (location == null) {
+      location = new File(string(id));
+      locations.compareAndSet(id, null, location);
+      location = locations.get(id);
+    }
+    return location;
+  }
+}
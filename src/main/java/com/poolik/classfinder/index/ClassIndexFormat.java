@@ -0,0 +1,63 @@
+package com.poolik.classfinder.index;
+
+import java.nio.charset.Charset;
+
+/**
+ * <p>Layout of a class index file. Every number is a big-endian
+ * <tt>int</tt>, and every offset counts bytes from the start of the
+ * file.</p>
+ *
+ * <pre>
+ * header        magic, version, parse depth, class count, string count,
+ *               and where the string offsets, string data, class records
+ *               and data start
+ * string table  string count + 1 offsets into the string data, then the
+ *               strings' UTF-8 bytes, padded to a multiple of four
+ * class records one fixed-width record per class, sorted by class name:
+ *               name, super class, location (string ids, -1 for none),
+ *               modifier, and the data offsets of the interfaces,
+ *               annotations, fields and methods
+ * data          interfaces:  count (-1 for none), string ids
+ *               annotations: count, then name id and visibility (0 or 1)
+ *               fields:      count, then access, name id, description id,
+ *                            signature id, value type and two value words
+ *               methods:     count, then access, name id, description id,
+ *                            signature id, exception count (-1 for
+ *                            none) and exception name ids
+ * </pre>
+ */
+final class ClassIndexFormat {
+  static final int MAGIC = 0x43464958;
+  static final int VERSION = 1;
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+  static final int NONE = -1;
+
+  static final int HEADER_SIZE = 40;
+  static final int PARSE_DEPTH = 8;
+  static final int CLASS_COUNT = 12;
+  static final int STRING_COUNT = 16;
+  static final int STRING_OFFSETS = 20;
+  static final int STRING_DATA = 24;
+  static final int CLASS_RECORDS = 28;
+  static final int DATA = 32;
+  static final int FILE_SIZE = 36;
+
+  static final int RECORD_SIZE = 32;
+  static final int RECORD_NAME = 0;
+  static final int RECORD_SUPER_CLASS = 4;
+  static final int RECORD_LOCATION = 8;
+  static final int RECORD_MODIFIER = 12;
+  static final int RECORD_INTERFACES = 16;
+  static final int RECORD_ANNOTATIONS = 20;
+  static final int RECORD_FIELDS = 24;
+  static final int RECORD_METHODS = 28;
+
+  static final int NO_VALUE = 0;
+  static final int INT_VALUE = 1;
+  static final int LONG_VALUE = 2;
+  static final int FLOAT_VALUE = 3;
+  static final int DOUBLE_VALUE = 4;
+  static final int STRING_VALUE = 5;
+
+  private ClassIndexFormat() {}
+}
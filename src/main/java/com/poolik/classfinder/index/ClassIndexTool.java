@@ -0,0 +1,101 @@
+package com.poolik.classfinder.index;
+
+import com.poolik.classfinder.ParallelClassLoader;
+import com.poolik.classfinder.ParseDepth;
+import com.poolik.classfinder.info.ClassInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Writes a {@link ClassIndex} of a module's classes at build time, to
+ * be packaged into its jar. It is run from the command line, or from a
+ * build through a plugin running Java programs:</p>
+ *
+ * <pre>
+ * java com.poolik.classfinder.index.ClassIndexTool [--depth HEADER|ANNOTATIONS|MEMBERS]
+ *      [--output file] directory-or-jar...
+ * </pre>
+ *
+ * <p>The index is written to <tt>META-INF/classfinder.idx</tt> below the
+ * first directory unless an output file is given. Classes are parsed to
+ * <tt>MEMBERS</tt> depth unless told otherwise; a jar whose index holds
+ * less than a search needs is scanned as if it had none.</p>
+ *
+ * <p>Other code writing indexes calls {@link #index} or {@link #run}, which
+ * throw instead of ending the JVM.</p>
+ */
+public final class ClassIndexTool {
+  private static final Logger log = LoggerFactory.getLogger(ClassIndexTool.class);
+  private static final String USAGE = "Usage: ClassIndexTool [--depth HEADER|ANNOTATIONS|MEMBERS] [--output file] directory-or-jar...";
+
+  private ClassIndexTool() {}
+
+  /**
+   * Run the tool from the command line, exiting with status 2 if the
+   * arguments are wrong.
+   */
+  public static void main(String[] args) throws IOException {
+    try {
+      run(args);
+    } catch (IllegalArgumentException ex) {
+      log.error(ex.getMessage());
+      log.error(USAGE);
+      System.exit(2);
+    }
+  }
+
+  /**
+   * Write the index the command line arguments ask for.
+   *
+   * @return the index file written
+   * @throws IllegalArgumentException if the arguments are wrong
+   * @throws IOException              if the index can't be written
+   */
+  public static File run(String... args) throws IOException {
+    ParseDepth parseDepth = ParseDepth.MEMBERS;
+    File output = null;
+    List<File> locations = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      if ((args[i].equals("--depth") || args[i].equals("-d")) && i + 1 < args.length) {
+        try {
+          parseDepth = ParseDepth.valueOf(args[++i]);
+        } catch (IllegalArgumentException ex) {
+          throw new IllegalArgumentException("Unknown parse depth " + args[i]);
+        }
+      } else if ((args[i].equals("--output") || args[i].equals("-o")) && i + 1 < args.length) {
+        output = new File(args[++i]);
+      } else if (args[i].startsWith("-")) {
+        throw new IllegalArgumentException("Unknown option " + args[i]);
+      } else {
+        locations.add(new File(args[i]));
+      }
+    }
+    if (locations.isEmpty()) throw new IllegalArgumentException("Nothing to index");
+    if (output == null) {
+      if (!locations.get(0).isDirectory()) throw new IllegalArgumentException("Give an --output file when indexing jars");
+      output = new File(locations.get(0), ClassIndex.RESOURCE_NAME);
+    }
+    index(locations, parseDepth, output);
+    return output;
+  }
+
+  /**
+   * Write an index of the classes found in the directories and archives.
+   *
+   * @return how many classes were indexed
+   * @throws IOException if the index can't be written
+   */
+  public static int index(Collection<File> locations, ParseDepth parseDepth, File output) throws IOException {
+    Map<String, ClassInfo> classes = new ParallelClassLoader(parseDepth).loadClassesFrom(locations);
+    ClassIndexWriter.write(classes.values(), parseDepth, output);
+    log.info("Indexed " + classes.size() + " classes in " + output);
+    return classes.size();
+  }
+}
@@ -0,0 +1,246 @@
+package com.poolik.classfinder.index;
+
+import com.poolik.classfinder.ParseDepth;
+import com.poolik.classfinder.info.AnnotationInfo;
+import com.poolik.classfinder.info.ClassInfo;
+import com.poolik.classfinder.info.FieldInfo;
+import com.poolik.classfinder.info.MethodInfo;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.poolik.classfinder.index.ClassIndexFormat.*;
+
+/**
+ * Writes classes found by a scan to a file that {@link ClassIndex} reads
+ * back. Every string is stored once, however many classes use it. The
+ * file is replaced in one step, so readers never see it half written.
+ */
+public final class ClassIndexWriter {
+  private static final Comparator<ClassInfo> BY_NAME = new Comparator<ClassInfo>() {
+    @Override
+    public int compare(ClassInfo first, ClassInfo second) {
+      return first.getClassName().compareTo(second.getClassName());
+    }
+  };
+
+  private final Map<String, Integer> stringIds = new HashMap<>();
+  private final List<String> strings = new ArrayList<>();
+  private final IntArray data = new IntArray();
+
+  private ClassIndexWriter() {}
+
+  /**
+   * Write an index of the classes. Of classes with the same name only the
+   * first is kept.
+   *
+   * @param classes    the classes
+   * @param parseDepth what was parsed of the classes, recorded so readers
+   *                   know what they can look at
+   * @param file       the index file, replaced if it exists
+   */
+  public static void write(Collection<ClassInfo> classes, ParseDepth parseDepth, File file) throws IOException {
+    new ClassIndexWriter().writeIndex(classes, parseDepth, file.getAbsoluteFile().toPath());
+  }
+
+  private void writeIndex(Collection<ClassInfo> classes, ParseDepth parseDepth, Path file) throws IOException {
+    List<ClassInfo> sorted = new ArrayList<>(classes);
+    Collections.sort(sorted, BY_NAME);
+    IntArray records = new IntArray();
+    String previousName = null;
+    for (ClassInfo classInfo : sorted) {
+      if (classInfo.getClassName().equals(previousName)) continue;
+      previousName = classInfo.getClassName();
+      addRecord(records, classInfo);
+    }
+
+    ByteArrayOutputStream stringData = new ByteArrayOutputStream();
+    int[] stringOffsets = new int[strings.size() + 1];
+    for (int i = 0; i < strings.size(); i++) {
+      byte[] bytes = strings.get(i).getBytes(UTF_8);
+      stringData.write(bytes, 0, bytes.length);
+      stringOffsets[i + 1] = stringData.size();
+    }
+    while (stringData.size() % 4 != 0)
+      stringData.write(0);
+
+    int stringOffsetsStart = HEADER_SIZE;
+    int stringDataStart = stringOffsetsStart + 4 * stringOffsets.length;
+    int recordsStart = stringDataStart + stringData.size();
+    int dataStart = recordsStart + 4 * records.size();
+    long fileSize = dataStart + 4L * data.size();
+    if (fileSize > Integer.MAX_VALUE) throw new IOException("Index of " + sorted.size() + " classes is too large");
+
+    Path directory = file.getParent();
+    Files.createDirectories(directory);
+    Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(parseDepth.ordinal());
+        out.writeInt(records.size() * 4 / RECORD_SIZE);
+        out.writeInt(strings.size());
+        out.writeInt(stringOffsetsStart);
+        out.writeInt(stringDataStart);
+        out.writeInt(recordsStart);
+        out.writeInt(dataStart);
+        out.writeInt((int) fileSize);
+        for (int offset : stringOffsets)
+          out.writeInt(offset);
+        stringData.writeTo(out);
+        // Record fields holding data offsets are stored relative to the
+        // data, and made absolute here
+        for (int i = 0; i < records.size(); i++) {
+          int field = (i * 4) % RECORD_SIZE;
+          int value = records.get(i);
+          out.writeInt(field >= RECORD_INTERFACES ? dataStart + 4 * value : value);
+        }
+        for (int i = 0; i < data.size(); i++)
+          out.writeInt(data.get(i));
+      }
+      try {
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException ex) {
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private void addRecord(IntArray records, ClassInfo classInfo) {
+    records.add(idOf(classInfo.getClassName()));
+    records.add(idOf(classInfo.getSuperClassName()));
+    records.add(classInfo.getClassLocation() == null ? NONE : idOf(classInfo.getClassLocation().getPath()));
+    records.add(classInfo.getModifier());
+    records.add(addStrings(classInfo.getInterfaces()));
+    records.add(addAnnotations(classInfo.getAnnotations()));
+    records.add(addFields(classInfo.getFields()));
+    records.add(addMethods(classInfo.getMethods()));
+  }
+
+  private int addStrings(String[] values) {
+    int start = data.size();
+    if (values == null) {
+      data.add(NONE);
+      return start;
+    }
+    data.add(values.length);
+    for (String value : values)
+      data.add(idOf(value));
+    return start;
+  }
+
+  private int addAnnotations(Collection<AnnotationInfo> annotations) {
+    int start = data.size();
+    data.add(annotations.size());
+    for (AnnotationInfo annotation : annotations) {
+      data.add(idOf(annotation.getName()));
+      data.add(annotation.isVisibleAtRuntime() ? 1 : 0);
+    }
+    return start;
+  }
+
+  private int addFields(Collection<FieldInfo> fields) {
+    int start = data.size();
+    data.add(fields.size());
+    for (FieldInfo field : fields) {
+      data.add(field.getAccess());
+      data.add(idOf(field.getName()));
+      data.add(idOf(field.getDescription()));
+      data.add(idOf(field.getSignature()));
+      addValue(field.getValue());
+    }
+    return start;
+  }
+
+  private void addValue(Object value) {
+    long bits;
+    int type;
+    if (value instanceof Integer) {
+      type = INT_VALUE;
+      bits = (Integer) value;
+    } else if (value instanceof Long) {
+      type = LONG_VALUE;
+      bits = (Long) value;
+    } else if (value instanceof Float) {
+      type = FLOAT_VALUE;
+      bits = Float.floatToRawIntBits((Float) value);
+    } else if (value instanceof Double) {
+      type = DOUBLE_VALUE;
+      bits = Double.doubleToRawLongBits((Double) value);
+    } else if (value instanceof String) {
+      type = STRING_VALUE;
+      bits = idOf((String) value);
+    } else {
+      type = NO_VALUE;
+      bits = 0;
+    }
+    data.add(type);
+    data.add((int) (bits >>> 32));
+    data.add((int) bits);
+  }
+
+  private int addMethods(Collection<MethodInfo> methods) {
+    int start = data.size();
+    data.add(methods.size());
+    for (MethodInfo method : methods) {
+      data.add(method.getAccess());
+      data.add(idOf(method.getName()));
+      data.add(idOf(method.getDescription()));
+      data.add(idOf(method.getSignature()));
+      String[] exceptions = method.getExceptions();
+      data.add(exceptions == null ? NONE : exceptions.length);
+      if (exceptions != null) {
+        for (String exception : exceptions)
+          data.add(idOf(exception));
+      }
+    }
+    return start;
+  }
+
+  private int idOf(String value) {
+    if (value == null) return NONE;
+    Integer id = stringIds.get(value);
+    if (id == null) {
+      id = strings.size();
+      strings.add(value);
+      stringIds.put(value, id);
+    }
+    return id;
+  }
+
+  private static class IntArray {
+    private int[] values = new int[1024];
+    private int size;
+
+    void add(int value) {
+      if (size == values.length) values = Arrays.copyOf(values, size * 2);
+      values[size++] = value;
+    }
+
+    int get(int index) {
+      return values[index];
+    }
+
+    int size() {
+      return size;
+    }
+  }
+}
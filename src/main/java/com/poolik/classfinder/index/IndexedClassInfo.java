@@ -0,0 +1,145 @@
+package com.poolik.classfinder.index;
+
+import com.poolik.classfinder.info.AnnotationInfo;
+import com.poolik.classfinder.info.ClassInfo;
+import com.poolik.classfinder.info.FieldInfo;
+import com.poolik.classfinder.info.MethodInfo;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.poolik.classfinder.index.ClassIndexFormat.*;
+
+/**
+ * A class of a {@link ClassIndex}, read from its record as it is looked
+ * at.
+ */
+class IndexedClassInfo extends ClassInfo {
+  private final ClassIndex index;
+  private final int record;
+  private volatile Set<FieldInfo> fields;
+  private volatile Set<MethodInfo> methods;
+  private volatile Set<AnnotationInfo> annotations;
+
+  IndexedClassInfo(ClassIndex index, int record) {
+    this.index = index;
+    this.record = record;
+  }
+
+  @Override
+  public String getClassName() {
+    return index.string(index.getInt(record + RECORD_NAME));
+  }
+
+  @Override
+  public String getSuperClassName() {
+    return index.string(index.getInt(record + RECORD_SUPER_CLASS));
+  }
+
+  @Override
+  public String[] getInterfaces() {
+    int offset = index.getInt(record + RECORD_INTERFACES);
+    int count = index.getInt(offset);
+    if (count == NONE) return null;
+    String[] interfaces = new String[count];
+    for (int i = 0; i < count; i++)
+      interfaces[i] = index.string(index.getInt(offset + 4 + 4 * i));
+    return interfaces;
+  }
+
+  @Override
+  public int getModifier() {
+    return index.getInt(record + RECORD_MODIFIER);
+  }
+
+  @Override
+  public File getClassLocation() {
+    return index.location(index.getInt(record + RECORD_LOCATION));
+  }
+
+  @Override
+  public Set<FieldInfo> getFields() {
+    if (fields == null) fields = readFields();
+    return fields;
+  }
+
+  @Override
+  public Set<MethodInfo> getMethods() {
+    if (methods == null) methods = readMethods();
+    return methods;
+  }
+
+  @Override
+  public Set<AnnotationInfo> getAnnotations() {
+    if (annotations == null) annotations = readAnnotations();
+    return annotations;
+  }
+
+  private Set<FieldInfo> readFields() {
+    int offset = index.getInt(record + RECORD_FIELDS);
+    int count = index.getInt(offset);
+    Set<FieldInfo> fields = new HashSet<>();
+    for (int i = 0; i < count; i++) {
+      int field = offset + 4 + 28 * i;
+      fields.add(new FieldInfo(index.getInt(field),
+          index.string(index.getInt(field + 4)),
+          index.string(index.getInt(field + 8)),
+          index.string(index.getInt(field + 12)),
+          readValue(field + 16)));
+    }
+    return Collections.unmodifiableSet(fields);
+  }
+
+  private Object readValue(int offset) {
+    int type = index.getInt(offset);
+    long bits = ((long) index.getInt(offset + 4) << 32) | (index.getInt(offset + 8) & 0xFFFFFFFFL);
+    switch (type) {
+      case INT_VALUE:
+        return (int) bits;
+      case LONG_VALUE:
+        return bits;
+      case FLOAT_VALUE:
+        return Float.intBitsToFloat((int) bits);
+      case DOUBLE_VALUE:
+        return Double.longBitsToDouble(bits);
+      case STRING_VALUE:
+        return index.string((int) bits);
+      default:
+        return null;
+    }
+  }
+
+  private Set<MethodInfo> readMethods() {
+    int offset = index.getInt(record + RECORD_METHODS);
+    int count = index.getInt(offset);
+    Set<MethodInfo> methods = new HashSet<>();
+    int method = offset + 4;
+    for (int i = 0; i < count; i++) {
+      int exceptionCount = index.getInt(method + 16);
+      String[] exceptions = exceptionCount == NONE ? null : new String[exceptionCount];
+      for (int j = 0; j < exceptionCount; j++)
+        exceptions[j] = index.string(index.getInt(method + 20 + 4 * j));
+      methods.add(new MethodInfo(index.getInt(method),
+          index.string(index.getInt(method + 4)),
+          index.string(index.getInt(method + 8)),
+          index.string(index.getInt(method + 12)),
+          exceptions));
+      method += 20 + 4 * Math.max(exceptionCount, 0);
+    }
+    return Collections.unmodifiableSet(methods);
+  }
+
+  private Set<AnnotationInfo> readAnnotations() {
+    int offset = index.getInt(record + RECORD_ANNOTATIONS);
+    int count = index.getInt(offset);
+    Set<AnnotationInfo> annotations = new HashSet<>();
+    for (int i = 0; i < count; i++) {
+      String name = index.string(index.getInt(offset + 4 + 8 * i));
+      // AnnotationInfo takes a descriptor and keeps the class name
+      annotations.add(new AnnotationInfo("L" + name.replace('.', '/') + ";", index.getInt(offset + 8 + 8 * i) != 0));
+    }
+    return Collections.unmodifiableSet(annotations);
+  }
+}
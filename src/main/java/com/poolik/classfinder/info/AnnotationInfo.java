@@ -11,7 +11,9 @@ public class AnnotationInfo {
   }
 
   private String getClassName(String classDescriptor) {
-    return classDescriptor.replace("L", "").replace(";", "").replaceAll("/", ".");
+    if (classDescriptor.startsWith("L") && classDescriptor.endsWith(";"))
+      classDescriptor = classDescriptor.substring(1, classDescriptor.length() - 1);
+    return classDescriptor.replace('/', '.');
   }
 
   public String getName() {
@@ -72,6 +72,14 @@ import java.util.Set;
  * @version <tt>$Revision$</tt>
  */
 public class ClassInfo extends EmptyVisitor {
+  /**
+   * Ignored. How much of a class file is read is set with a
+   * {@link com.poolik.classfinder.ParseDepth}, as by
+   * {@link com.poolik.classfinder.ClassFinder#setParseDepth}.
+   *
+   * @deprecated to be removed in the next major version
+   */
+  @Deprecated
   public static int ASM_CR_ACCEPT_CRITERIA = 0;
 
   private int modifier = 0;
@@ -101,6 +109,13 @@ public class ClassInfo extends EmptyVisitor {
     setClassFields(name, superClassName, interfaces, asmAccessMask, location);
   }
 
+  /**
+   * Create a <tt>ClassInfo</tt> with nothing set, for subclasses that
+   * override the getters, such as views of a class in an index.
+   */
+  protected ClassInfo() {
+  }
+
 
   public String getClassName() {
     return className;
@@ -156,6 +171,9 @@ public class ClassInfo extends EmptyVisitor {
   @Override
   public String toString() {
     StringBuilder buf = new StringBuilder();
+    int modifier = getModifier();
+    String[] implementedInterfaces = getInterfaces();
+    String superClassName = getSuperClassName();
 
     if ((modifier & Modifier.PUBLIC) != 0)
       buf.append("public ");
@@ -168,7 +186,7 @@ public class ClassInfo extends EmptyVisitor {
     else
       buf.append("class ");
 
-    buf.append(className);
+    buf.append(getClassName());
 
     String sep = " ";
     if (implementedInterfaces.length > 0) {
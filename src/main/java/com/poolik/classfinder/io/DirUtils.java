@@ -1,15 +1,13 @@
 package com.poolik.classfinder.io;
 
-import com.poolik.classfinder.io.visitor.SuffixFileVisitor;
 import com.poolik.classfinder.io.visitor.CopyDirVisitor;
 import com.poolik.classfinder.io.visitor.DeleteDirVisitor;
 
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
-import java.util.Collection;
 import java.util.EnumSet;
 import java.util.Objects;
+import java.util.Set;
 
 public class DirUtils {
 
@@ -27,11 +25,16 @@ public class DirUtils {
     Files.walkFileTree(from, EnumSet.of(FileVisitOption.FOLLOW_LINKS),Integer.MAX_VALUE,new CopyDirVisitor(from, to, copyPredicate));
   }
 
-  public static Collection<File> findWithSuffix(Path from, String suffix) throws IOException {
-    validate(from);
-    SuffixFileVisitor visitor = new SuffixFileVisitor(suffix);
-    Files.walkFileTree(from, visitor);
-    return visitor.getFiles();
+  /**
+   * Walk a directory tree, following symbolic links the same way
+   * {@link #copy} does if asked to. Unlike the other methods here, a
+   * missing directory is reported to the visitor instead of failing.
+   */
+  public static void walk(Path from, FileVisitor<Path> visitor, boolean followLinks) throws IOException {
+    Set<FileVisitOption> options = followLinks
+        ? EnumSet.of(FileVisitOption.FOLLOW_LINKS)
+        : EnumSet.noneOf(FileVisitOption.class);
+    Files.walkFileTree(from, options, Integer.MAX_VALUE, visitor);
   }
 
   private static void validate(Path... paths) {
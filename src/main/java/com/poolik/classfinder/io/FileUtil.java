@@ -46,7 +46,10 @@
 
 package com.poolik.classfinder.io;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 
 public class FileUtil {
   private FileUtil() {}
@@ -58,6 +61,7 @@ public class FileUtil {
     if (file.exists()) {
       can = ((fileName.toLowerCase().endsWith(".jar")) ||
           (fileName.toLowerCase().endsWith(".zip")) ||
+          (isWebOrEnterpriseArchive(fileName)) ||
           (file.isDirectory()));
     }
 
@@ -71,4 +75,25 @@ public class FileUtil {
   public static boolean isZip(String fileName) {
     return fileName.toLowerCase().endsWith(".zip");
   }
+
+  public static boolean isWebOrEnterpriseArchive(String fileName) {
+    String lowerCase = fileName.toLowerCase();
+    return lowerCase.endsWith(".war") || lowerCase.endsWith(".ear");
+  }
+
+  /**
+   * @return true for jar, zip, war and ear files
+   */
+  public static boolean isArchive(String fileName) {
+    return isJar(fileName) || isZip(fileName) || isWebOrEnterpriseArchive(fileName);
+  }
+
+  public static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 1024));
+    byte[] buffer = new byte[4096];
+    int read;
+    while ((read = in.read(buffer)) != -1)
+      out.write(buffer, 0, read);
+    return out.toByteArray();
+  }
 }
\ No newline at end of file
@@ -0,0 +1,208 @@
+package com.poolik.classfinder.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Decides which parts of a place to search are looked at, from package
+ * prefixes and path globs. Everything is judged by its path relative to
+ * the top of the directory or archive it is in, with <tt>/</tt> between
+ * names, such as <tt>com/acme/Plugin.class</tt>.</p>
+ *
+ * <p>A package includes its subpackages. Once any package is included,
+ * class files in other packages are left out, and so are directories that
+ * can't hold an included package. Jar and zip files in such directories
+ * are not found either. Excluded packages and directories matching an
+ * excluded glob are never walked.</p>
+ *
+ * <p>Globs use <tt>*</tt> for any part of a name, <tt>**</tt> for any
+ * number of directories, <tt>?</tt> for a single character and
+ * <tt>{a,b}</tt> for alternatives, so <tt>**&#47;shaded/**</tt> matches
+ * everything below a directory called <tt>shaded</tt>. Once any path is
+ * included, class files and archives matching no included glob are left
+ * out; included globs don't keep directories from being walked.</p>
+ *
+ * <p>Class entries of archives under <tt>BOOT-INF/classes/</tt>,
+ * <tt>WEB-INF/classes/</tt> or <tt>META-INF/versions/</tt><i>n</i><tt>/</tt>
+ * are matched against packages by their path below that directory.</p>
+ *
+ * <p>A scope can also be narrowed with a test on the names of class entries
+ * in archives, see {@link #restrictClassEntries}. Class files in
+ * directories are not put through it, as they need not be stored under
+ * their package's path.</p>
+ */
+public class PathScope {
+  public static final PathScope EVERYTHING = new PathScope(new ArrayList<String>(), new ArrayList<String>(),
+      new ArrayList<String>(), new ArrayList<String>());
+  private static final Pattern CLASS_ROOT = Pattern.compile("^(?:BOOT-INF/classes/|WEB-INF/classes/|META-INF/versions/\\d+/)");
+
+  private final List<String> includedPackages;
+  private final List<String> excludedPackages;
+  private final List<Pattern> includedPaths;
+  private final List<Pattern> excludedPaths;
+  private final Predicate<String> classEntries;
+
+  /**
+   * @param includedPackages packages to look through, such as
+   *                         <tt>com.acme.plugins</tt>, or none for all
+   * @param excludedPackages packages to leave out
+   * @param includedPaths    globs of paths to look at, or none for all
+   * @param excludedPaths    globs of paths to leave out
+   */
+  public PathScope(Collection<String> includedPackages, Collection<String> excludedPackages,
+                   Collection<String> includedPaths, Collection<String> excludedPaths) {
+    this.includedPackages = toPaths(includedPackages);
+    this.excludedPackages = toPaths(excludedPackages);
+    this.includedPaths = toPatterns(includedPaths);
+    this.excludedPaths = toPatterns(excludedPaths);
+    this.classEntries = null;
+  }
+
+  private PathScope(PathScope scope, Predicate<String> classEntries) {
+    this.includedPackages = scope.includedPackages;
+    this.excludedPackages = scope.excludedPackages;
+    this.includedPaths = scope.includedPaths;
+    this.excludedPaths = scope.excludedPaths;
+    this.classEntries = classEntries;
+  }
+
+  /**
+   * Get a scope that also leaves out class entries of archives whose names
+   * fail the given test.
+   *
+   * @param classEntries test on the entry's full name in the archive, such
+   *                     as <tt>BOOT-INF/classes/com/acme/Plugin.class</tt>,
+   *                     or null to leave the entries as they are
+   * @return the narrower scope
+   */
+  public PathScope restrictClassEntries(Predicate<String> classEntries) {
+    if (classEntries == null) return this;
+    return new PathScope(this, this.classEntries == null ? classEntries : Predicates.and(Arrays.asList(this.classEntries, classEntries)));
+  }
+
+  /**
+   * @return true if everything is looked at
+   */
+  public boolean isEverything() {
+    return includedPackages.isEmpty() && excludedPackages.isEmpty() && includedPaths.isEmpty() && excludedPaths.isEmpty()
+        && classEntries == null;
+  }
+
+  /**
+   * @param path the directory's path, without a trailing <tt>/</tt>
+   * @return false if nothing below the directory is looked at
+   */
+  public boolean includesDirectory(String path) {
+    if (matchesAny(excludedPaths, path) || isBelowAny(excludedPackages, path)) return false;
+    if (includedPackages.isEmpty()) return true;
+    for (String included : includedPackages) {
+      if (isAtOrBelow(path, included) || isAtOrBelow(included, path)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * @param path the class file's path in a directory
+   * @return true if the class file is looked at
+   */
+  public boolean includesClassFile(String path) {
+    return includesPath(path) && includesPackageOf(path);
+  }
+
+  /**
+   * @param name the entry's name in an archive
+   * @return true if the class entry is looked at
+   */
+  public boolean includesClassEntry(String name) {
+    return includesPath(name) && includesPackageOf(CLASS_ROOT.matcher(name).replaceFirst(""))
+        && (classEntries == null || classEntries.apply(name));
+  }
+
+  /**
+   * @param path the path of a jar or zip file in a directory or archive
+   * @return true if the archive is looked through
+   */
+  public boolean includesArchive(String path) {
+    return includesPath(path);
+  }
+
+  private boolean includesPath(String path) {
+    return !matchesAny(excludedPaths, path) && (includedPaths.isEmpty() || matchesAny(includedPaths, path));
+  }
+
+  private boolean includesPackageOf(String path) {
+    int end = path.lastIndexOf('/');
+    String packagePath = end < 0 ? "" : path.substring(0, end);
+    if (isBelowAny(excludedPackages, packagePath)) return false;
+    return includedPackages.isEmpty() || isBelowAny(includedPackages, packagePath);
+  }
+
+  private static boolean isBelowAny(List<String> packagePaths, String path) {
+    for (String packagePath : packagePaths) {
+      if (isAtOrBelow(path, packagePath)) return true;
+    }
+    return false;
+  }
+
+  private static boolean isAtOrBelow(String path, String ancestor) {
+    return ancestor.isEmpty() || path.equals(ancestor)
+        || (path.startsWith(ancestor) && path.charAt(ancestor.length()) == '/');
+  }
+
+  private static boolean matchesAny(List<Pattern> patterns, String path) {
+    for (Pattern pattern : patterns) {
+      if (pattern.matcher(path).matches()) return true;
+    }
+    return false;
+  }
+
+  private static List<String> toPaths(Collection<String> packageNames) {
+    List<String> paths = new ArrayList<>();
+    for (String packageName : packageNames)
+      paths.add(packageName.replace('.', '/'));
+    return paths;
+  }
+
+  private static List<Pattern> toPatterns(Collection<String> globs) {
+    List<Pattern> patterns = new ArrayList<>();
+    for (String glob : globs)
+      patterns.add(Pattern.compile(globToRegex(glob)));
+    return patterns;
+  }
+
+  private static String globToRegex(String glob) {
+    StringBuilder regex = new StringBuilder();
+    boolean inAlternatives = false;
+    for (int i = 0; i < glob.length(); i++) {
+      char c = glob.charAt(i);
+      if (glob.startsWith("**/", i)) {
+        regex.append("(?:.*/)?");
+        i += 2;
+      } else if (glob.startsWith("/**", i) && i + 3 == glob.length()) {
+        regex.append("(?:/.*)?");
+        i += 2;
+      } else if (glob.startsWith("**", i)) {
+        regex.append(".*");
+        i++;
+      } else if (c == '*') {
+        regex.append("[^/]*");
+      } else if (c == '?') {
+        regex.append("[^/]");
+      } else if (c == '{') {
+        regex.append("(?:");
+        inAlternatives = true;
+      } else if (c == '}' && inAlternatives) {
+        regex.append(')');
+        inAlternatives = false;
+      } else if (c == ',' && inAlternatives) {
+        regex.append('|');
+      } else {
+        regex.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    return regex.toString();
+  }
+}
@@ -1,5 +1,8 @@
 package com.poolik.classfinder.io;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class Predicates {
   private Predicates() {}
 
@@ -11,4 +14,30 @@ public class Predicates {
       }
     };
   }
-}
\ No newline at end of file
+
+  public static <T> Predicate<T> and(List<Predicate<T>> predicates) {
+    final List<Predicate<T>> all = new ArrayList<>(predicates);
+    return new Predicate<T>() {
+      @Override
+      public boolean apply(T t) {
+        for (Predicate<T> predicate : all) {
+          if (!predicate.apply(t)) return false;
+        }
+        return true;
+      }
+    };
+  }
+
+  public static <T> Predicate<T> or(List<Predicate<T>> predicates) {
+    final List<Predicate<T>> any = new ArrayList<>(predicates);
+    return new Predicate<T>() {
+      @Override
+      public boolean apply(T t) {
+        for (Predicate<T> predicate : any) {
+          if (predicate.apply(t)) return true;
+        }
+        return false;
+      }
+    };
+  }
+}
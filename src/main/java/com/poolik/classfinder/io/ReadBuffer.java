@@ -0,0 +1,79 @@
+package com.poolik.classfinder.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>A byte array kept per thread to read class files into, so reading
+ * allocates nothing once the array has grown to the largest class file
+ * seen.</p>
+ *
+ * <p>Whatever was read is overwritten by the thread's next read, so it
+ * must be parsed before reading another file.</p>
+ */
+public final class ReadBuffer {
+  private static final ThreadLocal<ReadBuffer> pool = new ThreadLocal<ReadBuffer>() {
+    @Override
+    protected ReadBuffer initialValue() {
+      return new ReadBuffer();
+    }
+  };
+
+  private byte[] bytes = new byte[8192];
+
+  private ReadBuffer() {}
+
+  public static ReadBuffer forCurrentThread() {
+    return pool.get();
+  }
+
+  /**
+   * Read a whole file.
+   *
+   * @param size the expected size of the file, as found when listing it.
+   *             Files that have changed size since are still read whole.
+   * @return the file's contents, between the buffer's position and limit
+   */
+  public ByteBuffer read(Path file, long size) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer buf = ByteBuffer.wrap(array(size + 1));
+      while (channel.read(buf) >= 0) {
+        if (!buf.hasRemaining()) buf = grow(buf);
+      }
+      buf.flip();
+      return buf;
+    }
+  }
+
+  /**
+   * Copy the bytes between the buffer's position and limit, leaving the
+   * buffer itself untouched.
+   *
+   * @return the copy, between the returned buffer's position and limit
+   */
+  public ByteBuffer copy(ByteBuffer data) {
+    int size = data.remaining();
+    byte[] copy = array(size);
+    data.duplicate().get(copy, 0, size);
+    return ByteBuffer.wrap(copy, 0, size);
+  }
+
+  private byte[] array(long size) {
+    if (size > Integer.MAX_VALUE) throw new IllegalArgumentException("Can't buffer " + size + " bytes");
+    if (bytes.length < size) bytes = new byte[(int) Math.max(size, Math.min(bytes.length * 2L, Integer.MAX_VALUE))];
+    return bytes;
+  }
+
+  private ByteBuffer grow(ByteBuffer buf) {
+    int position = buf.position();
+    byte[] old = bytes;
+    bytes = new byte[(int) Math.min(old.length * 2L, Integer.MAX_VALUE)];
+    System.arraycopy(old, 0, bytes, 0, position);
+    ByteBuffer grown = ByteBuffer.wrap(bytes);
+    grown.position(position);
+    return grown;
+  }
+}
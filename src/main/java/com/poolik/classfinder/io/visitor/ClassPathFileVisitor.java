@@ -0,0 +1,116 @@
+package com.poolik.classfinder.io.visitor;
+
+import com.poolik.classfinder.io.FileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * <p>Sorts every file of a directory tree into class files and archives in
+ * a single walk, handing each one over as soon as it is found. Other files
+ * are ignored. Subdirectories below the walk's starting point are passed
+ * to {@link #visitDirectory}, which decides whether this walk descends into
+ * them.</p>
+ *
+ * <p>A tree can be split over several walks, each starting at a directory
+ * handed out by {@link #visitDirectory}. Passing {@link #getAncestors()} on
+ * to the walk of such a directory lets it recognise symbolic link loops
+ * that lead back above its own starting point.</p>
+ */
+public abstract class ClassPathFileVisitor extends SimpleFileVisitor<Path> {
+  private static final Logger log = LoggerFactory.getLogger(ClassPathFileVisitor.class);
+  private final Path start;
+  private final Set<Object> ancestors;
+  private final Deque<Object> walking = new ArrayDeque<>();
+
+  protected ClassPathFileVisitor(Path start) {
+    this(start, Collections.<Object>emptySet());
+  }
+
+  /**
+   * @param start     where the walk starts
+   * @param ancestors keys of the directories above <tt>start</tt>, as
+   *                  returned by {@link #getAncestors()} of the walk that
+   *                  handed <tt>start</tt> out
+   */
+  protected ClassPathFileVisitor(Path start, Set<Object> ancestors) {
+    this.start = start;
+    this.ancestors = ancestors;
+  }
+
+  /**
+   * @return keys of the directories from the top of the tree down to the
+   * one currently being walked
+   */
+  protected Set<Object> getAncestors() {
+    Set<Object> keys = new HashSet<>(ancestors);
+    keys.addAll(walking);
+    return keys;
+  }
+
+  protected abstract void visitClassFile(Path file, BasicFileAttributes attrs);
+
+  protected abstract void visitArchive(Path file, BasicFileAttributes attrs);
+
+  /**
+   * @return {@link FileVisitResult#CONTINUE} to walk the directory as part
+   * of this walk, {@link FileVisitResult#SKIP_SUBTREE} to leave it out,
+   * {@link FileVisitResult#TERMINATE} to stop the walk
+   */
+  protected abstract FileVisitResult visitDirectory(Path dir, BasicFileAttributes attrs);
+
+  @Override
+  public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+    Object key = directoryKey(dir, attrs);
+    if (!dir.equals(start)) {
+      if (ancestors.contains(key) || walking.contains(key)) {
+        log.warn("Not following '" + dir + "', it leads back to a directory above it");
+        return FileVisitResult.SKIP_SUBTREE;
+      }
+      FileVisitResult result = visitDirectory(dir, attrs);
+      if (result != FileVisitResult.CONTINUE) return result;
+    }
+    walking.push(key);
+    return FileVisitResult.CONTINUE;
+  }
+
+  @Override
+  public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+    walking.pop();
+    if (exc != null) log.error("Failed to list '" + dir + "': ", exc);
+    return FileVisitResult.CONTINUE;
+  }
+
+  @Override
+  public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+    String name = file.getFileName().toString();
+    if (name.endsWith(".class")) visitClassFile(file, attrs);
+    else if (FileUtil.isArchive(name)) visitArchive(file, attrs);
+    return FileVisitResult.CONTINUE;
+  }
+
+  @Override
+  public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+    if (exc instanceof FileSystemLoopException)
+      log.warn("Not following '" + file + "', it leads back to a directory above it");
+    else
+      log.error("Can't read '" + file + "': ", exc);
+    return FileVisitResult.CONTINUE;
+  }
+
+  private Object directoryKey(Path dir, BasicFileAttributes attrs) {
+    Object key = attrs.fileKey();
+    return key != null ? key : dir.toAbsolutePath().normalize();
+  }
+}
@@ -0,0 +1,115 @@
+package com.poolik.classfinder.io.zip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * <p>A zip or jar file held in a <tt>ByteBuffer</tt>, usually one mapped
+ * straight from the file with {@link #map}. The central directory and
+ * local headers are parsed from the buffer itself.</p>
+ *
+ * <p>Stored entries are returned as slices of the archive buffer, without
+ * copying. Deflated entries are inflated with an <tt>Inflater</tt> and
+ * arrays kept per thread. An <tt>ArchiveBuffer</tt> can be read from by
+ * several threads at once.</p>
+ *
+ * <p>Archives stored in the archive are opened in place by
+ * {@link #readArchive}, so a jar in a war file or a Spring Boot jar is
+ * never written to disk.</p>
+ */
+public class ArchiveBuffer implements ArchiveEntrySource {
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int LOCAL_HEADER_SIZE = 30;
+
+  private final ByteBuffer archive;
+  private final List<ArchiveEntry> entries;
+
+  /**
+   * @param archive the archive, between the buffer's position and limit.
+   *                The buffer's position and limit are left unchanged.
+   * @throws ZipException if the buffer does not hold a zip archive
+   */
+  public ArchiveBuffer(ByteBuffer archive) throws IOException {
+    this.archive = archive.slice().order(ByteOrder.LITTLE_ENDIAN);
+    this.entries = CentralDirectory.read(this.archive);
+  }
+
+  /**
+   * Map a zip or jar file into memory.
+   *
+   * @throws ZipException if the file is not a zip archive, or is too large
+   *                      to map in one piece
+   */
+  public static ArchiveBuffer map(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) throw new ZipException(file + " is too large to map, " + size + " bytes");
+      return new ArchiveBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+    }
+  }
+
+  /**
+   * @return the entries, ordered by where their data is in the archive
+   */
+  public List<ArchiveEntry> getEntries() {
+    return entries;
+  }
+
+  @Override
+  public ByteBuffer read(ArchiveEntry entry) throws IOException {
+    ByteBuffer data = compressedData(entry);
+    if (entry.getMethod() == ArchiveEntry.STORED) return data;
+
+    PooledInflater pooled = PooledInflater.forCurrentThread();
+    int compressedSize = data.remaining();
+    data.get(pooled.inputBuffer(compressedSize), 0, compressedSize);
+    return pooled.inflate(entry, compressedSize);
+  }
+
+  /**
+   * Stored archives are opened as a slice of this one, deflated ones are
+   * inflated into an array of their own.
+   */
+  @Override
+  public ArchiveBuffer readArchive(ArchiveEntry entry) throws IOException {
+    ByteBuffer data = compressedData(entry);
+    if (entry.getMethod() == ArchiveEntry.STORED) return new ArchiveBuffer(data);
+
+    PooledInflater pooled = PooledInflater.forCurrentThread();
+    int compressedSize = data.remaining();
+    data.get(pooled.inputBuffer(compressedSize), 0, compressedSize);
+    return new ArchiveBuffer(pooled.inflate(entry, compressedSize, new byte[(int) entry.getSize()]));
+  }
+
+  private ByteBuffer compressedData(ArchiveEntry entry) throws ZipException {
+    if (entry.getSize() > Integer.MAX_VALUE || entry.getCompressedSize() > Integer.MAX_VALUE)
+      throw new ZipException("Entry " + entry + " is too large");
+    if (entry.getMethod() != ArchiveEntry.STORED && entry.getMethod() != ArchiveEntry.DEFLATED)
+      throw new ZipException("Entry " + entry + " uses unsupported compression method " + entry.getMethod());
+    return slice(findData(entry), (int) entry.getCompressedSize(), entry);
+  }
+
+  private int findData(ArchiveEntry entry) throws ZipException {
+    long offset = entry.getLocalHeaderOffset();
+    if (offset + LOCAL_HEADER_SIZE > archive.limit() || archive.getInt((int) offset) != LOCAL_HEADER_SIGNATURE)
+      throw new ZipException("Invalid local header for entry " + entry);
+    int nameLength = archive.getShort((int) offset + 26) & 0xFFFF;
+    int extraLength = archive.getShort((int) offset + 28) & 0xFFFF;
+    return (int) offset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+  }
+
+  private ByteBuffer slice(int start, int length, ArchiveEntry entry) throws ZipException {
+    if (start + (long) length > archive.limit())
+      throw new ZipException("Entry " + entry + " runs past the end of the archive");
+    ByteBuffer data = archive.duplicate();
+    data.position(start);
+    data.limit(start + length);
+    return data.slice();
+  }
+}
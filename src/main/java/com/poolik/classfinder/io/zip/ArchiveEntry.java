@@ -0,0 +1,67 @@
+package com.poolik.classfinder.io.zip;
+
+/**
+ * An entry of a zip or jar file as recorded in its central directory.
+ *
+ * @see CentralDirectory
+ */
+public class ArchiveEntry {
+  public static final int STORED = 0;
+  public static final int DEFLATED = 8;
+
+  private final String name;
+  private final int method;
+  private final long crc;
+  private final long compressedSize;
+  private final long size;
+  private final long localHeaderOffset;
+
+  public ArchiveEntry(String name, int method, long crc, long compressedSize, long size, long localHeaderOffset) {
+    this.name = name;
+    this.method = method;
+    this.crc = crc;
+    this.compressedSize = compressedSize;
+    this.size = size;
+    this.localHeaderOffset = localHeaderOffset;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return {@link #STORED}, {@link #DEFLATED} or another zip compression
+   * method number
+   */
+  public int getMethod() {
+    return method;
+  }
+
+  public long getCrc() {
+    return crc;
+  }
+
+  public long getCompressedSize() {
+    return compressedSize;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * @return where the entry's local file header starts in the archive
+   */
+  public long getLocalHeaderOffset() {
+    return localHeaderOffset;
+  }
+
+  public boolean isDirectory() {
+    return name.endsWith("/");
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
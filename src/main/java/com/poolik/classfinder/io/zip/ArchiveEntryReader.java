@@ -0,0 +1,85 @@
+package com.poolik.classfinder.io.zip;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.ZipException;
+
+/**
+ * <p>Reads the contents of entries found by {@link CentralDirectory}
+ * straight from the archive at their recorded offsets, so any entry can be
+ * read without going through the ones before it.</p>
+ *
+ * <p>Entries are read and inflated into buffers kept per thread, so a
+ * reader must not be shared between threads.</p>
+ */
+public class ArchiveEntryReader implements ArchiveEntrySource {
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int LOCAL_HEADER_SIZE = 30;
+
+  private final FileChannel channel;
+  private final ByteBuffer localHeader = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+  public ArchiveEntryReader(FileChannel channel) {
+    this.channel = channel;
+  }
+
+  @Override
+  public ByteBuffer read(ArchiveEntry entry) throws IOException {
+    if (entry.getSize() > Integer.MAX_VALUE || entry.getCompressedSize() > Integer.MAX_VALUE)
+      throw new ZipException("Entry " + entry + " is too large");
+    int compressedSize = (int) entry.getCompressedSize();
+    int size = (int) entry.getSize();
+    PooledInflater pooled = PooledInflater.forCurrentThread();
+
+    long dataOffset = findData(entry);
+    if (entry.getMethod() == ArchiveEntry.STORED) {
+      byte[] contents = pooled.outputBuffer(size);
+      readFully(ByteBuffer.wrap(contents, 0, size), dataOffset);
+      return ByteBuffer.wrap(contents, 0, size);
+    }
+    if (entry.getMethod() != ArchiveEntry.DEFLATED)
+      throw new ZipException("Entry " + entry + " uses unsupported compression method " + entry.getMethod());
+
+    readFully(ByteBuffer.wrap(pooled.inputBuffer(compressedSize), 0, compressedSize), dataOffset);
+    return pooled.inflate(entry, compressedSize);
+  }
+
+  @Override
+  public ArchiveBuffer readArchive(ArchiveEntry entry) throws IOException {
+    if (entry.getSize() > Integer.MAX_VALUE || entry.getCompressedSize() > Integer.MAX_VALUE)
+      throw new ZipException("Entry " + entry + " is too large");
+    int compressedSize = (int) entry.getCompressedSize();
+    byte[] contents = new byte[(int) entry.getSize()];
+
+    long dataOffset = findData(entry);
+    if (entry.getMethod() == ArchiveEntry.STORED) {
+      readFully(ByteBuffer.wrap(contents), dataOffset);
+      return new ArchiveBuffer(ByteBuffer.wrap(contents));
+    }
+    if (entry.getMethod() != ArchiveEntry.DEFLATED)
+      throw new ZipException("Entry " + entry + " uses unsupported compression method " + entry.getMethod());
+
+    PooledInflater pooled = PooledInflater.forCurrentThread();
+    readFully(ByteBuffer.wrap(pooled.inputBuffer(compressedSize), 0, compressedSize), dataOffset);
+    return new ArchiveBuffer(pooled.inflate(entry, compressedSize, contents));
+  }
+
+  private long findData(ArchiveEntry entry) throws IOException {
+    localHeader.clear();
+    readFully(localHeader, entry.getLocalHeaderOffset());
+    if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE)
+      throw new ZipException("Invalid local header for entry " + entry);
+    int nameLength = localHeader.getShort(26) & 0xFFFF;
+    int extraLength = localHeader.getShort(28) & 0xFFFF;
+    return entry.getLocalHeaderOffset() + LOCAL_HEADER_SIZE + nameLength + extraLength;
+  }
+
+  private void readFully(ByteBuffer buf, long position) throws IOException {
+    while (buf.hasRemaining()) {
+      if (channel.read(buf, position + buf.position()) < 0) throw new EOFException();
+    }
+  }
+}
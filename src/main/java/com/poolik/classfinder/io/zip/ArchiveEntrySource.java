@@ -0,0 +1,28 @@
+package com.poolik.classfinder.io.zip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Something the contents of archive entries can be read from.
+ */
+public interface ArchiveEntrySource {
+  /**
+   * Read the uncompressed contents of an entry. The returned buffer may be
+   * reused by the calling thread's next read, so it must be consumed
+   * before reading another entry.
+   *
+   * @return the contents, between the buffer's position and limit
+   * @throws java.util.zip.ZipException if the entry can't be decoded
+   */
+  public ByteBuffer read(ArchiveEntry entry) throws IOException;
+
+  /**
+   * Open an archive stored as an entry, such as a jar in a war file. The
+   * returned archive does not depend on any buffer reused by later reads.
+   *
+   * @throws java.util.zip.ZipException if the entry can't be decoded or
+   *                                    is not an archive
+   */
+  public ArchiveBuffer readArchive(ArchiveEntry entry) throws IOException;
+}
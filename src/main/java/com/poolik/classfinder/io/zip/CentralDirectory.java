@@ -0,0 +1,193 @@
+package com.poolik.classfinder.io.zip;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * <p>Reads the central directory of a zip or jar file, including zip64
+ * archives, without touching any of the entries' data.</p>
+ *
+ * <p>Encrypted entries are left out, as their contents can't be read
+ * anyway.</p>
+ */
+public final class CentralDirectory {
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int END_SIZE = 22;
+  private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int ZIP64_LOCATOR_SIZE = 20;
+  private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+  private static final int ZIP64_END_SIZE = 56;
+  private static final int ZIP64_EXTRA_ID = 0x0001;
+  private static final int ENTRY_SIGNATURE = 0x02014b50;
+  private static final int ENTRY_SIZE = 46;
+  private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+  private static final int FLAG_ENCRYPTED = 1;
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final Comparator<ArchiveEntry> BY_OFFSET = new Comparator<ArchiveEntry>() {
+    @Override
+    public int compare(ArchiveEntry first, ArchiveEntry second) {
+      return Long.compare(first.getLocalHeaderOffset(), second.getLocalHeaderOffset());
+    }
+  };
+
+  private final Source source;
+
+  private CentralDirectory(Source source) {
+    this.source = source;
+  }
+
+  /**
+   * Read the entries of the archive open in the channel.
+   *
+   * @return the entries, ordered by where their data is in the archive
+   * @throws ZipException if the channel does not hold a zip archive
+   */
+  public static List<ArchiveEntry> read(final FileChannel channel) throws IOException {
+    return new CentralDirectory(new Source() {
+      @Override
+      public long size() throws IOException {
+        return channel.size();
+      }
+
+      @Override
+      public ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+          if (channel.read(buf, position + buf.position()) < 0) throw new EOFException();
+        }
+        buf.flip();
+        return buf;
+      }
+    }).read();
+  }
+
+  /**
+   * Read the entries of an archive held in memory, from the buffer's
+   * position to its limit.
+   *
+   * @return the entries, ordered by where their data is in the archive
+   * @throws ZipException if the buffer does not hold a zip archive
+   */
+  public static List<ArchiveEntry> read(final ByteBuffer archive) throws IOException {
+    return new CentralDirectory(new Source() {
+      @Override
+      public long size() {
+        return archive.remaining();
+      }
+
+      @Override
+      public ByteBuffer read(long position, int length) throws IOException {
+        if (position < 0 || position + length > archive.remaining()) throw new EOFException();
+        ByteBuffer buf = archive.duplicate();
+        buf.position(archive.position() + (int) position);
+        buf.limit(buf.position() + length);
+        return buf.slice();
+      }
+    }).read();
+  }
+
+  private List<ArchiveEntry> read() throws IOException {
+    long size = source.size();
+    int tailLength = (int) Math.min(size, END_SIZE + MAX_COMMENT_LENGTH);
+    long tailStart = size - tailLength;
+    ByteBuffer tail = littleEndian(source.read(tailStart, tailLength));
+
+    int end = findEnd(tail);
+    long entryCount = tail.getShort(end + 10) & 0xFFFF;
+    long directorySize = tail.getInt(end + 12) & ZIP64_MAGIC;
+    long directoryOffset = tail.getInt(end + 16) & ZIP64_MAGIC;
+    // Offsets are relative to the start of the zip data, which comes after
+    // any prefix, such as the launch script of an executable jar.
+    long prefixLength = tailStart + end - directorySize - directoryOffset;
+
+    if (end >= ZIP64_LOCATOR_SIZE && tail.getInt(end - ZIP64_LOCATOR_SIZE) == ZIP64_LOCATOR_SIGNATURE) {
+      long zip64EndOffset = tail.getLong(end - ZIP64_LOCATOR_SIZE + 8);
+      ByteBuffer zip64End = littleEndian(source.read(zip64EndOffset, ZIP64_END_SIZE));
+      if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) throw new ZipException("Invalid zip64 end of central directory record");
+      entryCount = zip64End.getLong(32);
+      directorySize = zip64End.getLong(40);
+      directoryOffset = zip64End.getLong(48);
+      prefixLength = 0;
+    }
+
+    if (prefixLength < 0 || directorySize > Integer.MAX_VALUE || prefixLength + directoryOffset + directorySize > size)
+      throw new ZipException("Invalid central directory size " + directorySize + " at offset " + directoryOffset);
+    ByteBuffer directory = littleEndian(source.read(prefixLength + directoryOffset, (int) directorySize));
+    return readEntries(directory, entryCount, prefixLength);
+  }
+
+  private int findEnd(ByteBuffer tail) throws ZipException {
+    for (int pos = tail.limit() - END_SIZE; pos >= 0; pos--) {
+      if (tail.getInt(pos) == END_SIGNATURE && pos + END_SIZE + (tail.getShort(pos + 20) & 0xFFFF) <= tail.limit())
+        return pos;
+    }
+    throw new ZipException("No end of central directory record, not a zip archive");
+  }
+
+  private List<ArchiveEntry> readEntries(ByteBuffer directory, long entryCount, long prefixLength) throws ZipException {
+    List<ArchiveEntry> entries = new ArrayList<>((int) Math.min(entryCount, directory.limit() / ENTRY_SIZE));
+    int pos = 0;
+    for (long i = 0; i < entryCount; i++) {
+      if (pos + ENTRY_SIZE > directory.limit() || directory.getInt(pos) != ENTRY_SIGNATURE)
+        throw new ZipException("Invalid central directory entry at " + pos);
+      int flags = directory.getShort(pos + 8) & 0xFFFF;
+      int method = directory.getShort(pos + 10) & 0xFFFF;
+      long crc = directory.getInt(pos + 16) & ZIP64_MAGIC;
+      long compressedSize = directory.getInt(pos + 20) & ZIP64_MAGIC;
+      long size = directory.getInt(pos + 24) & ZIP64_MAGIC;
+      int nameLength = directory.getShort(pos + 28) & 0xFFFF;
+      int extraLength = directory.getShort(pos + 30) & 0xFFFF;
+      int commentLength = directory.getShort(pos + 32) & 0xFFFF;
+      long offset = directory.getInt(pos + 42) & ZIP64_MAGIC;
+      String name = readName(directory, pos + ENTRY_SIZE, nameLength);
+
+      int extra = pos + ENTRY_SIZE + nameLength;
+      int extraEnd = extra + extraLength;
+      while (extra + 4 <= extraEnd) {
+        int id = directory.getShort(extra) & 0xFFFF;
+        int length = directory.getShort(extra + 2) & 0xFFFF;
+        if (id == ZIP64_EXTRA_ID) {
+          int field = extra + 4;
+          if (size == ZIP64_MAGIC) { size = directory.getLong(field); field += 8; }
+          if (compressedSize == ZIP64_MAGIC) { compressedSize = directory.getLong(field); field += 8; }
+          if (offset == ZIP64_MAGIC) offset = directory.getLong(field);
+        }
+        extra += 4 + length;
+      }
+
+      if ((flags & FLAG_ENCRYPTED) == 0)
+        entries.add(new ArchiveEntry(name, method, crc, compressedSize, size, prefixLength + offset));
+      pos = extraEnd + commentLength;
+    }
+    Collections.sort(entries, BY_OFFSET);
+    return entries;
+  }
+
+  private String readName(ByteBuffer directory, int start, int length) {
+    byte[] name = new byte[length];
+    for (int i = 0; i < length; i++)
+      name[i] = directory.get(start + i);
+    return new String(name, UTF_8);
+  }
+
+  private static ByteBuffer littleEndian(ByteBuffer buf) {
+    return buf.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private interface Source {
+    long size() throws IOException;
+
+    ByteBuffer read(long position, int length) throws IOException;
+  }
+}
@@ -0,0 +1,78 @@
+package com.poolik.classfinder.io.zip;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * An <tt>Inflater</tt> and the arrays to inflate with, kept per thread so
+ * reading entries allocates nothing once the arrays have grown to the
+ * largest entry seen.
+ */
+final class PooledInflater {
+  private static final ThreadLocal<PooledInflater> pool = new ThreadLocal<PooledInflater>() {
+    @Override
+    protected PooledInflater initialValue() {
+      return new PooledInflater();
+    }
+  };
+
+  private final Inflater inflater = new Inflater(true);
+  private byte[] input = new byte[8192];
+  private byte[] output = new byte[8192];
+
+  private PooledInflater() {}
+
+  static PooledInflater forCurrentThread() {
+    return pool.get();
+  }
+
+  /**
+   * @return an array of at least <tt>size</tt> bytes to put compressed data
+   * in before calling {@link #inflate}
+   */
+  byte[] inputBuffer(int size) {
+    if (input.length < size) input = new byte[Math.max(size, input.length * 2)];
+    return input;
+  }
+
+  /**
+   * @return an array of at least <tt>size</tt> bytes to read stored
+   * contents into, the one {@link #inflate} inflates into
+   */
+  byte[] outputBuffer(int size) {
+    if (output.length < size) output = new byte[Math.max(size, output.length * 2)];
+    return output;
+  }
+
+  /**
+   * Inflate the first <tt>compressedSize</tt> bytes of the input buffer
+   * into the output buffer.
+   */
+  ByteBuffer inflate(ArchiveEntry entry, int compressedSize) throws ZipException {
+    return inflate(entry, compressedSize, outputBuffer((int) entry.getSize()));
+  }
+
+  /**
+   * Inflate the first <tt>compressedSize</tt> bytes of the input buffer
+   * into <tt>contents</tt>, which must hold the whole entry.
+   */
+  ByteBuffer inflate(ArchiveEntry entry, int compressedSize, byte[] contents) throws ZipException {
+    int size = (int) entry.getSize();
+    inflater.reset();
+    inflater.setInput(input, 0, compressedSize);
+    try {
+      int inflated = 0;
+      while (inflated < size && !inflater.finished()) {
+        int count = inflater.inflate(contents, inflated, size - inflated);
+        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+        inflated += count;
+      }
+      if (inflated != size) throw new ZipException("Entry " + entry + " inflated to " + inflated + " bytes, expected " + size);
+    } catch (DataFormatException ex) {
+      throw new ZipException("Invalid compressed data in entry " + entry + ": " + ex.getMessage());
+    }
+    return ByteBuffer.wrap(contents, 0, size);
+  }
+}
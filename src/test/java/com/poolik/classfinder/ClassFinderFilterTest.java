@@ -6,15 +6,24 @@ import com.poolik.classfinder.otherTestClasses.ConcreteClass;
 import com.poolik.classfinder.otherTestClasses.SomeInterface;
 import com.poolik.classfinder.testClasses.TestClass1;
 import org.junit.Test;
+import org.objectweb.asm.Opcodes;
 
 import java.io.File;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import static com.poolik.classfinder.filter.And.allOf;
 import static com.poolik.classfinder.filter.Or.anyOf;
 import static org.hamcrest.core.AnyOf.anyOf;
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 public class ClassFinderFilterTest extends TestWithTestClasses {
 
@@ -52,6 +61,23 @@ public class ClassFinderFilterTest extends TestWithTestClasses {
     assertThat(classes.size(), is(3));
   }
 
+  @Test
+  public void findsSubclassesByName() {
+    Collection<ClassInfo> classes = getClassFinder().findClasses(Subclass.of(SomeInterface.class.getName()));
+    assertThat(classes.size(), is(3));
+  }
+
+  @Test
+  public void looksUpClassesBelowTypeInHierarchy() {
+    ClassHierarchy hierarchy = getClassFinder().findHierarchy();
+    assertThat(hierarchy.getSubtypesOf(SomeInterface.class.getName()).size(), is(3));
+    assertThat(hierarchy.getImplementorsOf(SomeInterface.class.getName()).size(), is(3));
+    assertThat(hierarchy.getSubinterfacesOf(SomeInterface.class.getName()).isEmpty(), is(true));
+    Collection<ClassInfo> subclasses = hierarchy.getSubclassesOf(com.poolik.classfinder.otherTestClasses.AbstractClass.class.getName());
+    assertThat(subclasses.size(), is(1));
+    assertThat(subclasses.iterator().next().getClassName(), is(ConcreteClass.class.getName()));
+  }
+
   @Test
   public void combinesFiltersWithAnd() {
     Collection<ClassInfo> classes = getClassFinder().findClasses(allOf(Subclass.of(SomeInterface.class), new AbstractClass()));
@@ -73,6 +99,20 @@ public class ClassFinderFilterTest extends TestWithTestClasses {
     assertThat(classes.size(), is(6));
   }
 
+  @Test
+  public void streamsClassesPassingFilter() {
+    assertThat(countStreamed(Regex.matches(".*\\d$")), is(3));
+    assertThat(countStreamed(Subclass.of(SomeInterface.class)), is(3));
+  }
+
+  @Test
+  public void findsLimitedNumberOfClassesPassingFilter() {
+    assertThat(getClassFinder().findClasses(Regex.matches(".*\\d$"), 2).size(), is(2));
+    assertThat(getClassFinder().findClasses(Regex.matches(".*\\d$"), 10).size(), is(3));
+    assertThat(getClassFinder().findAny(new Interface()).getClassName(), is(SomeInterface.class.getName()));
+    assertThat(getClassFinder().findAny(Regex.matches("NoSuchClass")), is(nullValue()));
+  }
+
   @Test
   public void filtersByAnnotation() {
     Collection<ClassInfo> classes = getClassFinder().findClasses(Annotated.with(Deprecated.class));
@@ -80,9 +120,141 @@ public class ClassFinderFilterTest extends TestWithTestClasses {
     assertThat(classes.iterator().next().getAnnotations().size(), is(2));
   }
 
+  @Test
+  public void looksUpAnnotatedClassesByRetention() {
+    String testAnnotation = TestAnnotation.class.getName();
+    assertThat(getClassFinder().findClasses(Annotated.with(testAnnotation, RetentionPolicy.CLASS)).size(), is(1));
+    assertThat(getClassFinder().findClasses(Annotated.with(testAnnotation, RetentionPolicy.RUNTIME)).size(), is(0));
+    assertThat(getClassFinder().findClasses(allOf(Annotated.with(Deprecated.class), Not.a(new AbstractClass()))).size(), is(1));
+
+    AnnotationIndex index = getClassFinder().findAnnotationIndex();
+    Collection<ClassInfo> deprecated = index.getClassesAnnotatedWith(Deprecated.class.getName(), RetentionPolicy.RUNTIME);
+    assertThat(deprecated.size(), is(1));
+    assertThat(deprecated.iterator().next().getClassName(), is(ConcreteClass.class.getName()));
+    assertThat(index.getClassesAnnotatedWith(testAnnotation).size(), is(1));
+    assertThat(index.getAnnotationNames().size(), is(2));
+  }
+
+  @Test
+  public void keepsHierarchyOnlyForTheFoundClassOfEachName() {
+    Map<String, ClassInfo> foundClasses = classes(
+        classInfo("a/Child", "a/Parent"),
+        classInfo("a/Parent", "a/GrandParent"),
+        classInfo("a/GrandParent", null),
+        classInfo("a/Other", null));
+    ClassInfo parentFoundElsewhere = classInfo("a/Parent", "a/Other");
+    ClassHierarchyResolver resolver = new ClassHierarchyResolver(foundClasses);
+
+    // Another class of the same name is looked up, but not kept for the found one
+    assertThat(resolver.findAllSuperClasses(parentFoundElsewhere).keySet(), is(names("a.Other")));
+    assertThat(resolver.findAllSuperClasses(foundClasses.get("a.Parent")).keySet(), is(names("a.GrandParent")));
+    assertThat(resolver.findAllSuperClasses(parentFoundElsewhere).keySet(), is(names("a.Other")));
+
+    Map<String, ClassInfo> superClasses = resolver.findAllSuperClasses(foundClasses.get("a.Child"));
+    assertThat(superClasses.keySet(), is(names("a.Parent", "a.GrandParent")));
+    assertThat(resolver.findAllSuperClasses(foundClasses.get("a.Child")) == superClasses, is(true));
+    try {
+      superClasses.clear();
+      fail("Kept results must not be changeable");
+    } catch (UnsupportedOperationException expected) {
+      // shared by every caller asking about the class
+    }
+  }
+
+  @Test
+  public void laysOutHierarchyAsTheResolverLooksItUp() {
+    Map<String, ClassInfo> foundClasses = classes(
+        classInfo("a/Top", null),
+        classInfo("a/Left", null, "a/Top"),
+        classInfo("a/Right", null, "a/Top"),
+        classInfo("a/Diamond", null, "a/Left", "a/Right"),
+        classInfo("a/Base", null, "a/Diamond"),
+        classInfo("a/Middle", "a/Base"),
+        classInfo("a/Leaf", "a/Middle", "a/Top"),
+        classInfo("a/Loose", "a/NotFound", "a/AlsoNotFound"));
+    ClassHierarchyResolver byMaps = new ClassHierarchyResolver(foundClasses);
+    ClassHierarchyResolver byGraph = ClassHierarchyResolver.forAllClasses(foundClasses);
+    for (ClassInfo classInfo : foundClasses.values()) {
+      for (String typeName : foundClasses.keySet()) {
+        assertThat(classInfo.getClassName() + " < " + typeName, byGraph.isSubclassOf(classInfo, typeName),
+            is(byMaps.isSubclassOf(classInfo, typeName)));
+        assertThat(classInfo.getClassName() + " < " + typeName, byGraph.implementsInterface(classInfo, typeName),
+            is(byMaps.implementsInterface(classInfo, typeName)));
+      }
+    }
+    // Middle adds no interfaces of its own and shares those of Base
+    assertThat(byGraph.implementsInterface(foundClasses.get("a.Middle"), "a.Top"), is(true));
+    assertThat(byGraph.isSubclassOf(foundClasses.get("a.Leaf"), "a.Base"), is(true));
+  }
+
+  @Test
+  public void findsClassesWhoseNamesHashAlike() {
+    // The names of each length differ only in parts hashing the same
+    Map<String, ClassInfo> foundClasses = classes(
+        classInfo("a/AaAa", null),
+        classInfo("a/BBBB", "a/AaAa"),
+        classInfo("a/AaBB", "a/BBBB"),
+        classInfo("a/Aa", null, "a/BB"),
+        classInfo("a/BB", null));
+    ClassHierarchyResolver byGraph = ClassHierarchyResolver.forAllClasses(foundClasses);
+    assertThat(byGraph.isSubclassOf(foundClasses.get("a.AaBB"), "a.AaAa"), is(true));
+    assertThat(byGraph.isSubclassOf(foundClasses.get("a.BBBB"), "a.AaBB"), is(false));
+    assertThat(byGraph.implementsInterface(foundClasses.get("a.Aa"), "a.BB"), is(true));
+    assertThat(byGraph.isSubtypeOf(foundClasses.get("a.AaBB"), "a.BBAa"), is(false));
+  }
+
+  @Test
+  public void cutsCyclesInHierarchyInsteadOfFollowingThem() {
+    Map<String, ClassInfo> foundClasses = classes(
+        classInfo("a/First", "a/Second"),
+        classInfo("a/Second", "a/First"),
+        classInfo("a/Below", "a/First"),
+        classInfo("a/Ping", null, "a/Pong"),
+        classInfo("a/Pong", null, "a/Ping"),
+        classInfo("a/Player", null, "a/Ping"));
+    for (ClassHierarchyResolver resolver : Arrays.asList(new ClassHierarchyResolver(foundClasses),
+        ClassHierarchyResolver.forAllClasses(foundClasses))) {
+      ClassInfo first = foundClasses.get("a.First");
+      ClassInfo second = foundClasses.get("a.Second");
+      ClassInfo ping = foundClasses.get("a.Ping");
+      ClassInfo pong = foundClasses.get("a.Pong");
+      // Only the edge closing each cycle is left out
+      assertThat(resolver.isSubclassOf(first, "a.Second") != resolver.isSubclassOf(second, "a.First"), is(true));
+      assertThat(resolver.implementsInterface(ping, "a.Pong") != resolver.implementsInterface(pong, "a.Ping"), is(true));
+      assertThat(resolver.isSubclassOf(foundClasses.get("a.Below"), "a.First"), is(true));
+      assertThat(resolver.implementsInterface(foundClasses.get("a.Player"), "a.Ping"), is(true));
+    }
+  }
+
+  private static ClassInfo classInfo(String internalName, String superName, String... interfaces) {
+    return new ClassInfo(internalName, superName, interfaces, Opcodes.ACC_PUBLIC, new File("classes"));
+  }
+
+  private static Map<String, ClassInfo> classes(ClassInfo... classInfos) {
+    Map<String, ClassInfo> classes = new HashMap<>();
+    for (ClassInfo classInfo : classInfos)
+      classes.put(classInfo.getClassName(), classInfo);
+    return classes;
+  }
+
+  private static Set<String> names(String... names) {
+    return new HashSet<>(Arrays.asList(names));
+  }
+
   private ClassFinder getClassFinder() {
     ClassFinder classFinder = new ClassFinder();
     classFinder.add(new File[]{otherClassesFolder.toFile(), classesFolder.toFile()});
     return classFinder;
   }
+
+  private int countStreamed(ClassFilter filter) {
+    int count = 0;
+    try (ClassStream classes = getClassFinder().streamClasses(filter, 1)) {
+      while (classes.hasNext()) {
+        classes.next();
+        count++;
+      }
+    }
+    return count;
+  }
 }
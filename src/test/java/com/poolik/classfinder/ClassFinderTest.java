@@ -1,15 +1,23 @@
 package com.poolik.classfinder;
 
+import com.poolik.classfinder.cache.SharedScanCache;
+import com.poolik.classfinder.filter.ClassFilter;
+import com.poolik.classfinder.filter.Regex;
 import com.poolik.classfinder.filter.Subclass;
+import com.poolik.classfinder.index.ClassIndex;
+import com.poolik.classfinder.index.ClassIndexTool;
 import com.poolik.classfinder.info.ClassInfo;
 import com.poolik.classfinder.io.DirUtils;
 import com.poolik.classfinder.io.Predicate;
 import com.poolik.classfinder.otherTestClasses.AbstractClass;
 import com.poolik.classfinder.otherTestClasses.ConcreteClass;
+import com.poolik.classfinder.otherTestClasses.SomeInterface;
+import com.poolik.classfinder.otherTestClasses.SomeInterfaceImpl;
 import com.poolik.classfinder.testClasses.TestInZip;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
 import org.jboss.shrinkwrap.api.exporter.ZipExporter;
 import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -21,13 +29,29 @@ import org.zeroturnaround.zip.ZipUtil;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.poolik.classfinder.filter.Or.anyOf;
 import static org.hamcrest.core.Is.is;
 import static org.jboss.shrinkwrap.api.container.ManifestContainer.DEFAULT_MANIFEST_NAME;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 public class ClassFinderTest extends TestWithTestClasses {
 
@@ -80,6 +104,73 @@ public class ClassFinderTest extends TestWithTestClasses {
     assertThat(classes.size(), is(8));
   }
 
+  @Test
+  public void followsLinkedDirectoriesWhenAsked() throws IOException, URISyntaxException {
+    copyTestClassesExcludingZip();
+    Files.createSymbolicLink(classesFolder.resolve("linked"), otherClassesFolder);
+
+    assertThat(new ClassFinder().add(classesFolder.toFile()).findClasses().size(), is(4));
+    assertThat(new ClassFinder().add(classesFolder.toFile()).setFollowLinks(true).findClasses().size(), is(8));
+  }
+
+  @Test
+  public void skipsLinksLeadingBackUpTheTree() throws IOException, URISyntaxException {
+    copyTestClassesExcludingZip();
+    Path nested = Files.createDirectories(classesFolder.resolve("a").resolve("b"));
+    Files.createSymbolicLink(nested.resolve("loop"), classesFolder);
+
+    for (int walkParallelism : new int[]{1, 16}) {
+      Collection<ClassInfo> classes = new ClassFinder()
+          .add(classesFolder.toFile())
+          .setFollowLinks(true)
+          .setWalkParallelism(walkParallelism)
+          .findClasses();
+      assertThat(classes.size(), is(4));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void refusesWalkParallelismBelowOneWhenSet() {
+    new ClassFinder().setWalkParallelism(0);
+  }
+
+  @Test
+  public void findsClassesWithGivenExecutor() throws IOException, URISyntaxException {
+    copyTestClassesExcludingZip();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      ClassFinder classFinder = new ClassFinder().setExecutor(executor).add(classesFolder.toFile());
+      assertThat(classFinder.findClasses().size(), is(4));
+      classFinder.close();
+      assertThat(executor.isShutdown(), is(false));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void findsClassesAsynchronously() throws Exception {
+    copyTestClassesExcludingZip();
+    final CountDownLatch called = new CountDownLatch(1);
+    final AtomicInteger found = new AtomicInteger();
+    Future<Collection<ClassInfo>> classes = new ClassFinder().add(classesFolder.toFile())
+        .findClassesAsync(null, new Callback<Collection<ClassInfo>>() {
+          @Override
+          public void onSuccess(Collection<ClassInfo> result) {
+            found.set(result.size());
+            called.countDown();
+          }
+
+          @Override
+          public void onFailure(Throwable failure) {
+            called.countDown();
+          }
+        });
+    assertThat(classes.get().size(), is(4));
+    assertThat(called.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(found.get(), is(4));
+  }
+
   @Test
   public void clearsPlacesToLook() throws IOException, URISyntaxException {
     copyTestClassesExcludingZip();
@@ -115,6 +206,289 @@ public class ClassFinderTest extends TestWithTestClasses {
     assertThat(classFinder.findClasses().size(), is(1));
   }
 
+  @Test
+  public void findsClassesFromMappedArchives() {
+    ClassFinder classFinder = new ClassFinder()
+        .setArchiveBackend(ArchiveBackend.MEMORY_MAPPED)
+        .add(createJarTo(new File(getTestFolder())))
+        .add(createZipTo(new File(getTestFolder())));
+    assertThat(classFinder.findClasses().size(), is(1));
+  }
+
+  @Test
+  public void findsClassesFromArchivesInsideArchivesWhenAsked() {
+    File war = new File(getTestFolder(), "classes.war");
+    ShrinkWrap.create(WebArchive.class, war.getName())
+        .addAsLibrary(createJarTo(new File(getTestFolder())))
+        .as(ZipExporter.class).exportTo(war, true);
+
+    assertThat(new ClassFinder().add(war).findClasses().size(), is(0));
+    for (ArchiveBackend backend : ArchiveBackend.values()) {
+      Collection<ClassInfo> classes = new ClassFinder().setScanNestedArchives(true).setArchiveBackend(backend).add(war).findClasses();
+      assertThat(classes.size(), is(1));
+      assertThat(classes.iterator().next().getClassLocation().getPath(), is(war.getPath() + "!/WEB-INF/lib/classes.jar"));
+    }
+  }
+
+  @Test
+  public void findsClassesFromWebArchivesInsideSearchedDirectories() throws IOException {
+    Path deployments = Files.createDirectories(Paths.get(getTestFolder(), "deployments"));
+    File war = deployments.resolve("app.war").toFile();
+    ShrinkWrap.create(WebArchive.class, war.getName())
+        .addClass(TestInZip.class)
+        .as(ZipExporter.class).exportTo(war, true);
+
+    Collection<ClassInfo> classes = new ClassFinder().add(deployments.toFile()).findClasses();
+    assertThat(classes.size(), is(1));
+    assertThat(classes.iterator().next().getClassLocation().getPath(), is(war.getPath()));
+  }
+
+  @Test
+  public void looksOnlyAtIncludedPackagesAndPaths() throws IOException, URISyntaxException {
+    Path packages = Paths.get(getTestFolder(), "packages");
+    copyTestClassesExcludingZip(packages.resolve("com/poolik/classfinder/testClasses"));
+    copyClasses("/com/poolik/classfinder/otherTestClasses", packages.resolve("com/poolik/classfinder/otherTestClasses"));
+
+    assertThat(new ClassFinder().add(packages.toFile()).includePackages("com.poolik.classfinder.otherTestClasses").findClasses().size(), is(4));
+    assertThat(new ClassFinder().add(packages.toFile()).excludePackages("com.poolik.classfinder.otherTestClasses").findClasses().size(), is(4));
+    assertThat(new ClassFinder().add(packages.toFile()).excludePaths("**/testClasses/**").findClasses().size(), is(4));
+    assertThat(new ClassFinder().add(packages.toFile()).includePaths("**/Concrete*").findClasses().size(), is(1));
+    assertThat(new ClassFinder().add(createJarTo(new File(getTestFolder()))).excludePackages("com.poolik").findClasses().size(), is(0));
+  }
+
+  @Test
+  public void skipsArchiveEntriesRegexFiltersCantMatch() {
+    ClassFinder classFinder = new ClassFinder().add(createJarTo(new File(getTestFolder())));
+    assertThat(classFinder.findClasses(Regex.matches("^com\\.poolik\\.classfinder\\.testClasses\\.Test")).size(), is(1));
+    assertThat(classFinder.findClasses(Regex.matches("^org\\.poolik\\.")).size(), is(0));
+    assertThat(classFinder.findClasses(anyOf(Regex.matches("^org\\."), Regex.matches("InZip$"))).size(), is(1));
+
+    File misplaced = new File(getTestFolder(), "misplaced.jar");
+    ShrinkWrap.create(JavaArchive.class, misplaced.getName())
+        .addAsResource(TestInZip.class.getResource("TestInZip.class"), "misplaced/TestInZip.class")
+        .as(ZipExporter.class).exportTo(misplaced, true);
+    classFinder = new ClassFinder().add(misplaced);
+    assertThat(classFinder.findClasses(Regex.matches("TestInZip")).size(), is(1));
+    assertThat(classFinder.findClasses(Regex.matches("^com\\.poolik\\.")).size(), is(0));
+  }
+
+  @Test
+  public void reusesCachedClassesUntilTheyChange() throws IOException {
+    File jar = createJarTo(new File(getTestFolder()));
+    ClassFinder classFinder = new ClassFinder()
+        .setCacheDirectory(new File(getTestFolder(), "cache"))
+        .add(otherClassesFolder.toFile())
+        .add(jar);
+    assertThat(classFinder.findClasses().size(), is(5));
+
+    Path classFile = otherClassesFolder.resolve("ConcreteClass.class");
+    FileTime lastModified = Files.getLastModifiedTime(classFile);
+    Files.write(classFile, new byte[(int) Files.size(classFile)]);
+    Files.setLastModifiedTime(classFile, lastModified);
+    assertThat(classFinder.findClasses().size(), is(5));
+
+    Files.delete(classFile);
+    assertThat(classFinder.findClasses().size(), is(4));
+
+    createJarToContaining(new File(getTestFolder()), ConcreteClass.class, jar.getName());
+    assertThat(classFinder.findClasses(Regex.matches("TestInZip")).size(), is(0));
+    assertThat(classFinder.findClasses(Regex.matches("ConcreteClass")).iterator().next().getClassLocation(), is(jar));
+  }
+
+  @Test
+  public void sharesClassesOfArchivesBetweenFinders() throws IOException {
+    File jar = createJarTo(new File(getTestFolder()));
+    SharedScanCache sharedCache = new SharedScanCache(100, false);
+    assertThat(new ClassFinder().setSharedCache(sharedCache).add(jar).findClasses().size(), is(1));
+    assertThat(new ClassFinder().setSharedCache(sharedCache).add(jar).findClasses().size(), is(1));
+    assertThat(sharedCache.getMissCount(), is(1L));
+    assertThat(sharedCache.getHitCount(), is(1L));
+
+    createJarToContaining(new File(getTestFolder()), ConcreteClass.class, jar.getName());
+    assertThat(jar.setLastModified(jar.lastModified() + 2000), is(true));
+    Collection<ClassInfo> classes = new ClassFinder().setSharedCache(sharedCache).add(jar).findClasses();
+    assertThat(classes.iterator().next().getClassName(), is(ConcreteClass.class.getName()));
+    assertThat(sharedCache.getMissCount(), is(2L));
+    assertThat(sharedCache.getArchiveCount(), is(1));
+  }
+
+  @Test
+  public void keepsFindersSharingArchiveClassesApart() throws IOException {
+    File jar = createJarToContaining(new File(getTestFolder()), ConcreteClass.class, "concrete.jar");
+    SharedScanCache sharedCache = new SharedScanCache(100, false);
+    ClassInfo parsed = new ClassFinder().setSharedCache(sharedCache).add(jar).findClasses().iterator().next();
+    parsed.getFields().clear();
+
+    ClassInfo shared = new ClassFinder().setSharedCache(sharedCache).add(jar).findClasses().iterator().next();
+    assertThat(sharedCache.getHitCount(), is(1L));
+    assertThat(shared.getFields().size(), is(2));
+    try {
+      shared.getFields().clear();
+      fail("Shared classes must not be changeable");
+    } catch (UnsupportedOperationException expected) {
+      // shared with the other finders
+    }
+  }
+
+  @Test
+  public void takesClassesFromIndexOfJarWhenItHasOne() throws IOException {
+    File index = new File(testFolder.newFolder(), "classfinder.idx");
+    ClassIndexTool.run("--output", index.getPath(), otherClassesFolder.toString());
+    File jar = new File(getTestFolder(), "indexed.jar");
+    ShrinkWrap.create(JavaArchive.class, jar.getName())
+        .addClass(TestInZip.class)
+        .addAsResource(index, ClassIndex.RESOURCE_NAME)
+        .as(ZipExporter.class).exportTo(jar, true);
+
+    Collection<ClassInfo> classes = new ClassFinder().add(jar).findClasses();
+    assertThat(classes.size(), is(4));
+    assertThat(classes.iterator().next().getClassLocation(), is(jar));
+    assertThat(new ClassFinder().add(jar).setArchiveBackend(ArchiveBackend.MEMORY_MAPPED).findClasses().size(), is(4));
+    assertThat(new ClassFinder().add(jar).findClasses(Subclass.of(AbstractClass.class)).size(), is(1));
+    assertThat(new ClassFinder().add(jar).setUseClassIndexes(false).findClasses().size(), is(1));
+  }
+
+  @Test
+  public void keepsWatchedClassesCurrentWithChangesOnDisk() throws Exception {
+    File jar = createJarTo(new File(getTestFolder()));
+    try (ClassFinder classFinder = new ClassFinder().add(otherClassesFolder.toFile()).add(jar).watch()) {
+      assertThat(classFinder.findClasses().size(), is(5));
+
+      Files.delete(otherClassesFolder.resolve("ConcreteClass.class"));
+      assertThat(awaitClassCount(classFinder, 4), is(4));
+
+      Path moreClasses = otherClassesFolder.resolve("more");
+      Files.createDirectory(moreClasses);
+      copyTestClassesExcludingZip(moreClasses);
+      int copied = new ClassFinder().add(moreClasses.toFile()).findClasses().size();
+      assertThat(awaitClassCount(classFinder, 4 + copied), is(4 + copied));
+
+      createJarToContaining(new File(getTestFolder()), ConcreteClass.class, jar.getName());
+      assertThat(awaitClassCount(classFinder, Regex.matches("ConcreteClass"), 1), is(1));
+      assertThat(classFinder.findAny(Regex.matches("ConcreteClass")).getClassLocation(), is(jar));
+      assertThat(classFinder.findAny(Regex.matches("TestInZip")) == null, is(true));
+    }
+  }
+
+  @Test
+  public void watchesWebArchivesAddedToWatchedDirectories() throws Exception {
+    try (ClassFinder classFinder = new ClassFinder().add(otherClassesFolder.toFile()).watch()) {
+      assertThat(classFinder.findClasses().size(), is(4));
+
+      File war = new File(testFolder.newFolder(), "app.war");
+      ShrinkWrap.create(WebArchive.class, war.getName())
+          .addClass(TestInZip.class)
+          .as(ZipExporter.class).exportTo(war, true);
+      File watchedWar = otherClassesFolder.resolve(war.getName()).toFile();
+      replace(watchedWar, war);
+
+      assertThat(awaitClassCount(classFinder, 5), is(5));
+      assertThat(classFinder.findAny(Regex.matches("TestInZip")).getClassLocation(), is(watchedWar));
+    }
+  }
+
+  @Test
+  public void answersSearchesWithWholeBatchesWhileWatchedJarIsRewritten() throws Exception {
+    File jar = createJarTo(new File(getTestFolder()));
+    try (final ClassFinder classFinder = new ClassFinder().add(otherClassesFolder.toFile()).add(jar).watch()) {
+      final AtomicInteger wrongCounts = new AtomicInteger();
+      final CountDownLatch moved = new CountDownLatch(1);
+      Thread searcher = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          while (moved.getCount() > 0) {
+            if (classFinder.findClasses().size() != 5) wrongCounts.incrementAndGet();
+          }
+        }
+      });
+      searcher.start();
+      moveConcreteClassThroughJar(jar, 10);
+      moved.countDown();
+      searcher.join();
+      assertThat(wrongCounts.get(), is(0));
+    }
+  }
+
+  @Test
+  public void startsStandingQueriesAddedWhileWatchingFromWholeBatches() throws Exception {
+    File jar = createJarTo(new File(getTestFolder()));
+    try (final ClassFinder classFinder = new ClassFinder().add(otherClassesFolder.toFile()).add(jar).watch()) {
+      // Every batch has the same five classes, so a query started from a
+      // whole batch is only ever told of changed ones
+      final AtomicInteger seeded = new AtomicInteger();
+      final AtomicInteger addedOrRemovedLater = new AtomicInteger();
+      final CountDownLatch moved = new CountDownLatch(1);
+      Thread adder = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          while (moved.getCount() > 0) {
+            final AtomicInteger added = new AtomicInteger();
+            final AtomicBoolean started = new AtomicBoolean();
+            classFinder.addQuery(null, new QueryListener() {
+              @Override
+              public void added(ClassInfo classInfo) {
+                if (started.get()) addedOrRemovedLater.incrementAndGet();
+                added.incrementAndGet();
+              }
+
+              @Override
+              public void removed(ClassInfo classInfo) {
+                addedOrRemovedLater.incrementAndGet();
+              }
+
+              @Override
+              public void changed(ClassInfo previous, ClassInfo current) {
+              }
+            });
+            started.set(true);
+            if (added.get() == 5) seeded.incrementAndGet();
+          }
+        }
+      });
+      adder.start();
+      moveConcreteClassThroughJar(jar, 5);
+      moved.countDown();
+      adder.join();
+      assertThat(seeded.get() > 0, is(true));
+      assertThat(addedOrRemovedLater.get(), is(0));
+    }
+  }
+
+  @Test
+  public void tellsStandingQueriesWhatChangedSinceLastRefresh() throws IOException {
+    final List<String> changes = new ArrayList<>();
+    ClassFinder classFinder = new ClassFinder().add(otherClassesFolder.toFile());
+    StandingQuery query = classFinder.addQuery(Subclass.of(SomeInterface.class), new QueryListener() {
+      @Override
+      public void added(ClassInfo classInfo) {
+        changes.add("added " + classInfo.getClassName());
+      }
+
+      @Override
+      public void removed(ClassInfo classInfo) {
+        changes.add("removed " + classInfo.getClassName());
+      }
+
+      @Override
+      public void changed(ClassInfo previous, ClassInfo current) {
+        changes.add("changed " + current.getClassName());
+      }
+    });
+    classFinder.refreshQueries();
+    assertThat(query.getClasses().size(), is(3));
+    assertThat(changes.size(), is(3));
+
+    changes.clear();
+    classFinder.refreshQueries();
+    assertThat(changes.isEmpty(), is(true));
+
+    Files.delete(otherClassesFolder.resolve("AbstractClass.class"));
+    classFinder.refreshQueries();
+    Collections.sort(changes);
+    assertThat(changes, is(Arrays.asList("removed " + AbstractClass.class.getName(), "removed " + ConcreteClass.class.getName())));
+    assertThat(query.getClasses().iterator().next().getClassName(), is(SomeInterfaceImpl.class.getName()));
+  }
+
   @Test
   public void findsClassesFromJarManifestClassPathJar() {
     createJarTo(new File(getTestFolder()));
@@ -157,6 +531,20 @@ public class ClassFinderTest extends TestWithTestClasses {
         .findClasses();
   }
 
+  private int awaitClassCount(ClassFinder classFinder, int expected) throws InterruptedException {
+    return awaitClassCount(classFinder, null, expected);
+  }
+
+  private int awaitClassCount(ClassFinder classFinder, ClassFilter filter, int expected) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    int count = classFinder.findClasses(filter).size();
+    while (count != expected && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+      count = classFinder.findClasses(filter).size();
+    }
+    return count;
+  }
+
   private void copyTestClassesExcludingZip() throws IOException, URISyntaxException {
     copyClasses("/com/poolik/classfinder/testClasses", classesFolder, excludeZip);
   }
@@ -179,6 +567,39 @@ public class ClassFinderTest extends TestWithTestClasses {
     return target;
   }
 
+  private File createJarToContaining(File parent, String fileName, Class<?>... classes) {
+    JavaArchive archive = ShrinkWrap.create(JavaArchive.class, fileName)
+        .addClasses(classes)
+        .addManifest();
+
+    File target = new File(parent, fileName);
+    archive.as(ZipExporter.class).exportTo(target, true);
+    return target;
+  }
+
+  /**
+   * Move ConcreteClass into the jar and back; it is always in one place or
+   * both.
+   */
+  private void moveConcreteClassThroughJar(File jar, int times) throws IOException, InterruptedException {
+    Path concreteClass = otherClassesFolder.resolve("ConcreteClass.class");
+    Path concreteClassCopy = testFolder.newFile().toPath();
+    Files.copy(concreteClass, concreteClassCopy, StandardCopyOption.REPLACE_EXISTING);
+    File staging = testFolder.newFolder();
+    for (int i = 0; i < times; i++) {
+      replace(jar, createJarToContaining(staging, jar.getName(), TestInZip.class, ConcreteClass.class));
+      Files.delete(concreteClass);
+      Thread.sleep(100);
+      Files.copy(concreteClassCopy, concreteClass);
+      replace(jar, createJarToContaining(staging, jar.getName(), TestInZip.class));
+      Thread.sleep(100);
+    }
+  }
+
+  private void replace(File target, File replacement) throws IOException {
+    Files.move(replacement.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
   private File createZipTo(File parent) {
     File zipFile = new File(parent, "classes.zip");
     ZipUtil.pack(classesFolder.toFile(), zipFile, new NameMapper() {
@@ -0,0 +1,96 @@
+package com.poolik.classfinder.cache;
+
+import com.poolik.classfinder.ParseDepth;
+import com.poolik.classfinder.info.ClassInfo;
+import org.junit.Test;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class SharedScanCacheTest {
+  private static final File FIRST = new File("first.jar");
+  private static final File SECOND = new File("second.jar");
+  private static final File THIRD = new File("third.jar");
+
+  @Test
+  public void evictsArchivesUsedLeastRecently() {
+    SharedScanCache cache = new SharedScanCache(2, false);
+    put(cache, FIRST, ParseDepth.MEMBERS, 1);
+    put(cache, SECOND, ParseDepth.MEMBERS, 1);
+    assertThat(get(cache, FIRST, ParseDepth.MEMBERS), is(notNullValue()));
+
+    put(cache, THIRD, ParseDepth.MEMBERS, 1);
+    assertThat(cache.getEvictionCount(), is(1L));
+    assertThat(cache.getClassCount(), is(2L));
+    assertThat(get(cache, SECOND, ParseDepth.MEMBERS), is(nullValue()));
+    assertThat(get(cache, FIRST, ParseDepth.MEMBERS), is(notNullValue()));
+    assertThat(get(cache, THIRD, ParseDepth.MEMBERS), is(notNullValue()));
+  }
+
+  @Test
+  public void refusesArchivesWithMoreClassesThanItHolds() {
+    SharedScanCache cache = new SharedScanCache(2, false);
+    put(cache, FIRST, ParseDepth.MEMBERS, 1);
+    put(cache, SECOND, ParseDepth.MEMBERS, 3);
+
+    assertThat(get(cache, SECOND, ParseDepth.MEMBERS), is(nullValue()));
+    assertThat(get(cache, FIRST, ParseDepth.MEMBERS), is(notNullValue()));
+    assertThat(cache.getArchiveCount(), is(1));
+    assertThat(cache.getClassCount(), is(1L));
+    assertThat(cache.getEvictionCount(), is(0L));
+  }
+
+  @Test
+  public void missesArchivesWhoseClassesTheGarbageCollectorDropped() {
+    SharedScanCache cache = new SharedScanCache(10, true);
+    put(cache, FIRST, ParseDepth.MEMBERS, 2);
+    cache.dropClassesOf(FIRST, false);
+
+    assertThat(get(cache, FIRST, ParseDepth.MEMBERS), is(nullValue()));
+    assertThat(cache.getMissCount(), is(1L));
+    assertThat(cache.getArchiveCount(), is(0));
+    assertThat(cache.getClassCount(), is(0L));
+  }
+
+  @Test
+  public void makesRoomFromDroppedClassesBeforeEvicting() {
+    SharedScanCache cache = new SharedScanCache(3, true);
+    put(cache, FIRST, ParseDepth.MEMBERS, 1);
+    put(cache, SECOND, ParseDepth.MEMBERS, 2);
+    cache.dropClassesOf(SECOND, false);
+
+    put(cache, THIRD, ParseDepth.MEMBERS, 1);
+    assertThat(cache.getEvictionCount(), is(0L));
+    assertThat(cache.getClassCount(), is(2L));
+    assertThat(get(cache, FIRST, ParseDepth.MEMBERS), is(notNullValue()));
+  }
+
+  @Test
+  public void parsesAgainForMoreDetailThanHeld() {
+    SharedScanCache cache = new SharedScanCache(10, false);
+    put(cache, FIRST, ParseDepth.HEADER, 1);
+
+    assertThat(get(cache, FIRST, ParseDepth.MEMBERS), is(nullValue()));
+    assertThat(get(cache, FIRST, ParseDepth.HEADER), is(notNullValue()));
+    assertThat(cache.getMissCount(), is(1L));
+    assertThat(cache.getHitCount(), is(1L));
+  }
+
+  private static void put(SharedScanCache cache, File archive, ParseDepth parseDepth, int classCount) {
+    List<ClassInfo> classes = new ArrayList<>();
+    for (int i = 0; i < classCount; i++)
+      classes.add(new ClassInfo("com/acme/Class" + i, "java/lang/Object", new String[0], Opcodes.ACC_PUBLIC, archive));
+    cache.put(archive, 1, 1, parseDepth, false, classes);
+  }
+
+  private static List<ClassInfo> get(SharedScanCache cache, File archive, ParseDepth parseDepth) {
+    return cache.get(archive, 1, 1, parseDepth, false);
+  }
+}
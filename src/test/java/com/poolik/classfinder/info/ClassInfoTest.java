@@ -1,22 +1,37 @@
 package com.poolik.classfinder.info;
 
 import com.poolik.classfinder.ClassFinder;
+import com.poolik.classfinder.ParseDepth;
+import com.poolik.classfinder.ScanMode;
 import com.poolik.classfinder.TestWithTestClasses;
 import com.poolik.classfinder.filter.And;
+import com.poolik.classfinder.filter.Annotated;
 import com.poolik.classfinder.filter.Interface;
 import com.poolik.classfinder.filter.Not;
 import com.poolik.classfinder.filter.Subclass;
+import com.poolik.classfinder.index.ClassIndex;
+import com.poolik.classfinder.index.ClassIndexWriter;
 import com.poolik.classfinder.otherTestClasses.AbstractClass;
+import com.poolik.classfinder.otherTestClasses.ConcreteClass;
 import com.poolik.classfinder.otherTestClasses.SomeInterface;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import static junit.framework.Assert.assertTrue;
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 public class ClassInfoTest extends TestWithTestClasses {
 
@@ -54,6 +69,110 @@ public class ClassInfoTest extends TestWithTestClasses {
     assertTrue(Modifier.isStatic(getMethod("another", methods).getAccess()));
   }
 
+  @Test
+  public void parsesOnlyTheHeaderWhenFilterNeedsNoMore() {
+    Collection<ClassInfo> classes = getClassFinder()
+        .setParseDepth(ParseDepth.HEADER)
+        .findClasses(Subclass.of(AbstractClass.class));
+
+    ClassInfo classInfo = classes.iterator().next();
+    assertThat(classInfo.getSuperClassName(), is(AbstractClass.class.getName()));
+    assertThat(classInfo.getFields().size(), is(0));
+    assertThat(classInfo.getMethods().size(), is(0));
+    assertThat(classInfo.getAnnotations().size(), is(0));
+  }
+
+  @Test
+  public void parsesAnnotationsWhenFilterNeedsThem() {
+    Collection<ClassInfo> classes = getClassFinder()
+        .setParseDepth(ParseDepth.HEADER)
+        .findClasses(Annotated.with(Deprecated.class));
+
+    ClassInfo classInfo = classes.iterator().next();
+    assertThat(classInfo.getAnnotations().size(), is(2));
+    assertThat(classInfo.getMethods().size(), is(0));
+  }
+
+  @Test
+  public void headerReaderProducesSameClassInfoAsAsm() {
+    Map<String, ClassInfo> asmClasses = findHeadersWith(ScanMode.ASM);
+    Map<String, ClassInfo> headerReaderClasses = findHeadersWith(ScanMode.HEADER_READER);
+
+    assertThat(headerReaderClasses.keySet(), is(asmClasses.keySet()));
+    for (ClassInfo expected : asmClasses.values()) {
+      ClassInfo actual = headerReaderClasses.get(expected.getClassName());
+      assertThat(actual.getSuperClassName(), is(expected.getSuperClassName()));
+      assertThat(Arrays.asList(actual.getInterfaces()), is(Arrays.asList(expected.getInterfaces())));
+      assertThat(actual.getModifier(), is(expected.getModifier()));
+      assertThat(actual.getClassLocation(), is(expected.getClassLocation()));
+    }
+  }
+
+  @Test
+  public void headerReaderRefusesClassFilesNewerThanAsmReads() throws IOException {
+    // Major version 61 is Java 17; ASM 4 reads up to Java 7
+    Path classFile = otherClassesFolder.resolve("ConcreteClass.class");
+    byte[] bytes = Files.readAllBytes(classFile);
+    bytes[6] = 0;
+    bytes[7] = 61;
+    Files.write(classFile, bytes);
+
+    Map<String, ClassInfo> asmClasses = findHeadersWith(ScanMode.ASM);
+    Map<String, ClassInfo> headerReaderClasses = findHeadersWith(ScanMode.HEADER_READER);
+    assertThat(headerReaderClasses.keySet(), is(asmClasses.keySet()));
+    assertThat(asmClasses.containsKey(ConcreteClass.class.getName()), is(false));
+  }
+
+  @Test
+  public void indexGivesBackTheSameClassInfo() throws IOException {
+    Collection<ClassInfo> classes = getClassFinder().add(classesFolder.toFile()).findClasses();
+    File indexFile = new File(testFolder.newFolder(), "classes.idx");
+    ClassIndexWriter.write(classes, ParseDepth.MEMBERS, indexFile);
+    ClassIndex index = ClassIndex.open(indexFile);
+
+    assertThat(index.size(), is(classes.size()));
+    assertThat(index.getParseDepth(), is(ParseDepth.MEMBERS));
+    for (ClassInfo expected : classes) {
+      ClassInfo actual = index.find(expected.getClassName());
+      assertThat(actual.toString(), is(expected.toString()));
+      assertThat(actual.getClassLocation(), is(expected.getClassLocation()));
+      assertThat(actual.getFields(), is(expected.getFields()));
+      assertThat(actual.getMethods(), is(expected.getMethods()));
+      assertThat(actual.getAnnotations(), is(expected.getAnnotations()));
+    }
+    assertThat(index.find("com.poolik.NoSuchClass"), is(nullValue()));
+    assertThat(index.findClasses(Subclass.of(AbstractClass.class)).iterator().next().getClassName(),
+        is("com.poolik.classfinder.otherTestClasses.ConcreteClass"));
+  }
+
+  @Test
+  public void refusesIndexWithUnknownParseDepth() throws IOException {
+    File indexFile = new File(testFolder.newFolder(), "classes.idx");
+    ClassIndexWriter.write(getClassFinder().findClasses(), ParseDepth.MEMBERS, indexFile);
+    byte[] bytes = Files.readAllBytes(indexFile.toPath());
+    // The parse depth is the int at offset 8
+    bytes[11] = 42;
+    Files.write(indexFile.toPath(), bytes);
+    try {
+      ClassIndex.open(indexFile);
+      fail("A parse depth that doesn't exist must be refused");
+    } catch (IOException expected) {
+      assertThat(expected.getMessage(), is("Class index has unknown parse depth 42"));
+    }
+  }
+
+  private Map<String, ClassInfo> findHeadersWith(ScanMode scanMode) {
+    Collection<ClassInfo> classes = new ClassFinder()
+        .add(new File[]{otherClassesFolder.toFile(), classesFolder.toFile()})
+        .setParseDepth(ParseDepth.HEADER)
+        .setScanMode(scanMode)
+        .findClasses();
+    Map<String, ClassInfo> byName = new HashMap<>();
+    for (ClassInfo classInfo : classes)
+      byName.put(classInfo.getClassName(), classInfo);
+    return byName;
+  }
+
   private MethodInfo getMethod(String methodName, Set<MethodInfo> methods) {
     for (MethodInfo method : methods) {
       if (methodName.equals(method.getName())) return method;